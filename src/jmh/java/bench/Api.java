@@ -0,0 +1,85 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * Handles on the application methods under benchmark. The application classes live in the default
+ * package, which cannot be imported from the named package JMH requires, so they are reached
+ * through method handles instead. Application objects are typed as {@code Object}; the handles are
+ * constants, so the JIT compiles calls through them like direct calls.
+ */
+final class Api {
+
+  static final MethodHandle NEW_ACCOUNT_MANAGER;
+  static final MethodHandle VALIDATE_CARD_NUMBER;
+  static final MethodHandle LOAD_ACCOUNTS;
+  static final MethodHandle READ_TRANSACTIONS_FROM_FILE;
+  static final MethodHandle PROCESS_TRANSACTIONS;
+  static final MethodHandle GENERATE_STATEMENTS;
+  static final MethodHandle NEW_CREDIT_CARD;
+  static final MethodHandle NEW_TRANSACTION;
+  static final MethodHandle PROCESS_TRANSACTION;
+  static final MethodHandle SET_CURRENT_BALANCE_CENTS;
+  static final MethodHandle GENERATE_DATA;
+
+  static {
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      Class<?> accountManager = Class.forName("AccountManager");
+      Class<?> creditCard = Class.forName("CreditCard");
+      Class<?> transaction = Class.forName("Transaction");
+
+      NEW_ACCOUNT_MANAGER = lookup.findConstructor(accountManager,
+          MethodType.methodType(void.class)).asType(MethodType.methodType(Object.class));
+      VALIDATE_CARD_NUMBER = lookup.findStatic(accountManager, "validateCardNumber",
+          MethodType.methodType(boolean.class, String.class));
+      LOAD_ACCOUNTS = lookup.findVirtual(accountManager, "loadAccounts",
+          MethodType.methodType(ArrayList.class, String.class))
+          .asType(MethodType.methodType(Object.class, Object.class, String.class));
+      READ_TRANSACTIONS_FROM_FILE = privateMethod(lookup, accountManager,
+          "readTransactionsFromFile", String.class)
+          .asType(MethodType.methodType(Object.class, Object.class, String.class));
+      PROCESS_TRANSACTIONS = privateMethod(lookup, accountManager,
+          "processTransactions", ArrayList.class)
+          .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+      GENERATE_STATEMENTS = lookup.findVirtual(accountManager, "generateStatements",
+          MethodType.methodType(void.class, String.class))
+          .asType(MethodType.methodType(void.class, Object.class, String.class));
+
+      NEW_CREDIT_CARD = lookup.findConstructor(creditCard,
+          MethodType.methodType(void.class, String.class, String.class))
+          .asType(MethodType.methodType(Object.class, String.class, String.class));
+      PROCESS_TRANSACTION = lookup.findVirtual(creditCard, "processTransaction",
+          MethodType.methodType(boolean.class, transaction))
+          .asType(MethodType.methodType(boolean.class, Object.class, Object.class));
+      SET_CURRENT_BALANCE_CENTS = lookup.findVirtual(creditCard, "setCurrentBalanceCents",
+          MethodType.methodType(void.class, long.class))
+          .asType(MethodType.methodType(void.class, Object.class, long.class));
+
+      NEW_TRANSACTION = lookup.findStatic(transaction, "ofCents", MethodType.methodType(
+          transaction, String.class, String.class, Date.class, String.class, long.class))
+          .asType(MethodType.methodType(Object.class,
+              String.class, String.class, Date.class, String.class, long.class));
+
+      GENERATE_DATA = lookup.findStatic(Class.forName("DataGenerator"), "main",
+          MethodType.methodType(void.class, String[].class));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private Api() {
+  }
+
+  private static MethodHandle privateMethod(MethodHandles.Lookup lookup, Class<?> owner,
+      String name, Class<?>... parameterTypes) throws ReflectiveOperationException {
+    Method method = owner.getDeclaredMethod(name, parameterTypes);
+    method.setAccessible(true);
+    return lookup.unreflect(method);
+  }
+}
@@ -0,0 +1,79 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Synthetic accounts and transactions files for the benchmarks, written by {@code DataGenerator}
+ * with a fixed seed. Files are generated once per size into the system temporary directory and
+ * reused by later benchmark runs.
+ */
+final class BenchmarkData {
+
+  private static final long SEED = 8L;
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * An accounts file with the given number of accounts.
+   */
+  static Path accounts(int accounts) {
+    return generate(accounts, 0)[0];
+  }
+
+  /**
+   * A transactions file with the given number of transactions over the cards of {@link
+   * #accounts(int)}.
+   */
+  static Path transactions(int accounts, int transactions) {
+    return generate(accounts, transactions)[1];
+  }
+
+  /**
+   * The card numbers of {@link #accounts(int)}, in file order.
+   */
+  static String[] cardNumbers(int accounts) {
+    String[] numbers = new String[accounts];
+    try (BufferedReader in = Files.newBufferedReader(accounts(accounts),
+        StandardCharsets.UTF_8)) {
+      // Skip the header
+      in.readLine();
+      for (int i = 0; i < accounts; i++) {
+        String line = in.readLine();
+        numbers[i] = line.substring(0, line.indexOf(','));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return numbers;
+  }
+
+  /**
+   * The accounts file and the transactions file of the given size, generated if missing. The
+   * generator draws the accounts before the transactions, so the accounts file of a size is the
+   * same whatever the number of transactions.
+   */
+  private static Path[] generate(int accounts, int transactions) {
+    Path dir = Paths.get(System.getProperty("java.io.tmpdir"), "pa3-bench");
+    Path cards = dir.resolve("cards-" + accounts + "-" + SEED + ".csv");
+    Path transactionsFile = dir.resolve(
+        "transactions-" + accounts + "-" + transactions + "-" + SEED + ".csv");
+    if (Files.notExists(cards) || Files.notExists(transactionsFile)) {
+      try {
+        Files.createDirectories(dir);
+        String[] args = {"--cards=" + cards, "--transactionsFile=" + transactionsFile,
+            "--accounts=" + accounts, "--transactions=" + transactions, "--seed=" + SEED};
+        Api.GENERATE_DATA.invokeExact(args);
+      } catch (Throwable e) {
+        throw new IllegalStateException("Could not generate benchmark data", e);
+      }
+    }
+    return new Path[] {cards, transactionsFile};
+  }
+}
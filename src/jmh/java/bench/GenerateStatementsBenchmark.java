@@ -0,0 +1,61 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Time to close the month and write the statements of every account, after a month of
+ * transactions, ten per account, has been applied.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GenerateStatementsBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int accounts;
+
+  private String accountsFile;
+  private String transactionsFile;
+  private File statementsFile;
+
+  private Object manager;
+
+  @Setup
+  public void setUp() throws IOException {
+    accountsFile = BenchmarkData.accounts(accounts).toString();
+    transactionsFile = BenchmarkData.transactions(accounts, accounts * 10).toString();
+    statementsFile = File.createTempFile("statements", ".txt");
+  }
+
+  // closeMonth empties the monthly logs, so every call needs a freshly processed month
+  @Setup(Level.Invocation)
+  public void processMonth() throws Throwable {
+    manager = (Object) Api.NEW_ACCOUNT_MANAGER.invokeExact();
+    Object invalid = (Object) Api.LOAD_ACCOUNTS.invokeExact(manager, accountsFile);
+    Object parsed = (Object) Api.READ_TRANSACTIONS_FROM_FILE.invokeExact(manager,
+        transactionsFile);
+    Object denied = (Object) Api.PROCESS_TRANSACTIONS.invokeExact(manager, parsed);
+  }
+
+  @Benchmark
+  public void generateStatements() throws Throwable {
+    Api.GENERATE_STATEMENTS.invokeExact(manager, statementsFile.getPath());
+  }
+
+  @TearDown
+  public void tearDown() {
+    statementsFile.delete();
+  }
+}
@@ -0,0 +1,37 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Time to load an accounts file of each size into a new {@code AccountManager}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LoadAccountsBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  public int accounts;
+
+  private String accountsFile;
+
+  @Setup
+  public void setUp() {
+    accountsFile = BenchmarkData.accounts(accounts).toString();
+  }
+
+  @Benchmark
+  public Object loadAccounts() throws Throwable {
+    Object manager = (Object) Api.NEW_ACCOUNT_MANAGER.invokeExact();
+    Object invalid = (Object) Api.LOAD_ACCOUNTS.invokeExact(manager, accountsFile);
+    return manager;
+  }
+}
@@ -0,0 +1,66 @@
+package bench;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of authorizing one transaction with {@code CreditCard.processTransaction}, both when it is
+ * approved and when it is denied for exceeding the limit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProcessTransactionBenchmark {
+
+  private static final String CARD_NUMBER = "1234432156788765";
+
+  private Object card;
+  private Object transaction;
+
+  @Setup(Level.Trial)
+  public void setUpTransaction() throws Throwable {
+    transaction = (Object) Api.NEW_TRANSACTION.invokeExact("1", CARD_NUMBER, new Date(),
+        "Dollar Tree", 835L);
+  }
+
+  // Calls to one card before it is replaced: every approval appends to the card's monthly log and
+  // totals, so a card kept for a whole iteration would make the benchmark measure the growth of
+  // that log. A setup per invocation would cost more than the call it surrounds.
+  private static final int CALLS_PER_CARD = 1024;
+
+  private int calls;
+
+  @Setup(Level.Iteration)
+  public void setUpCard() throws Throwable {
+    card = (Object) Api.NEW_CREDIT_CARD.invokeExact(CARD_NUMBER, "Jimmy Neutron");
+    calls = 0;
+  }
+
+  @Benchmark
+  public boolean approved() throws Throwable {
+    nextCall();
+    Api.SET_CURRENT_BALANCE_CENTS.invokeExact(card, 0L);
+    return (boolean) Api.PROCESS_TRANSACTION.invokeExact(card, transaction);
+  }
+
+  @Benchmark
+  public boolean denied() throws Throwable {
+    nextCall();
+    Api.SET_CURRENT_BALANCE_CENTS.invokeExact(card, 600000L);
+    return (boolean) Api.PROCESS_TRANSACTION.invokeExact(card, transaction);
+  }
+
+  private void nextCall() throws Throwable {
+    if (++calls == CALLS_PER_CARD) {
+      setUpCard();
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Time to parse a transactions file of each size, and to apply the parsed transactions to freshly
+ * loaded accounts. There is one account for every ten transactions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TransactionsBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  public int transactions;
+
+  private String accountsFile;
+  private String transactionsFile;
+
+  // Fresh accounts and transactions for each call of processTransactions
+  private Object manager;
+  private Object parsed;
+
+  @Setup
+  public void setUp() {
+    accountsFile = BenchmarkData.accounts(transactions / 10).toString();
+    transactionsFile = BenchmarkData.transactions(transactions / 10, transactions).toString();
+  }
+
+  @Setup(Level.Invocation)
+  public void loadAccounts() throws Throwable {
+    manager = (Object) Api.NEW_ACCOUNT_MANAGER.invokeExact();
+    Object invalid = (Object) Api.LOAD_ACCOUNTS.invokeExact(manager, accountsFile);
+    parsed = (Object) Api.READ_TRANSACTIONS_FROM_FILE.invokeExact(manager, transactionsFile);
+  }
+
+  @Benchmark
+  public Object readTransactionsFromFile() throws Throwable {
+    return (Object) Api.READ_TRANSACTIONS_FROM_FILE.invokeExact(manager, transactionsFile);
+  }
+
+  @Benchmark
+  public Object processTransactions() throws Throwable {
+    return (Object) Api.PROCESS_TRANSACTIONS.invokeExact(manager, parsed);
+  }
+}
@@ -0,0 +1,34 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of one Luhn check of {@code AccountManager.validateCardNumber}, over a mix of valid and
+ * invalid 16 digit card numbers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ValidateCardNumberBenchmark {
+
+  private String[] cardNumbers;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    cardNumbers = BenchmarkData.cardNumbers(1024);
+  }
+
+  @Benchmark
+  public boolean validateCardNumber() throws Throwable {
+    String cardNumber = cardNumbers[next++ & (cardNumbers.length - 1)];
+    return (boolean) Api.VALIDATE_CARD_NUMBER.invokeExact(cardNumber);
+  }
+}
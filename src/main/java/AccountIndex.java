@@ -0,0 +1,245 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Finds credit cards by card number without hashing or comparing strings. Cards are kept in a
+ * dense array in the order they were added, and an open-addressing table maps a card number, held
+ * as a long with its digit count, to the dense slot of its card. A lookup allocates nothing.
+ *
+ * <p>A card number that is not a plain number of at most 18 digits cannot be held in a long; the
+ * few cards like that are kept in a side map by their string.
+ */
+public class AccountIndex {
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  // Cards in the order they were added
+  private int size;
+  private long[] keys;
+  private byte[] digits;
+  private CreditCard[] cards;
+
+  // Dense slot plus one for each hash bucket, 0 for an empty bucket. Kept at most half full.
+  private int[] table;
+  private int mask;
+
+  private final HashMap<String, CreditCard> oddCards = new HashMap<>();
+  private final Map<String, CreditCard> view = new MapView();
+
+  /**
+   * Creates an empty index.
+   */
+  public AccountIndex() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates an empty index with room for {@code capacity} cards before it has to grow.
+   *
+   * @param capacity The expected number of cards.
+   */
+  public AccountIndex(int capacity) {
+    capacity = Math.max(capacity, 1);
+    keys = new long[capacity];
+    digits = new byte[capacity];
+    cards = new CreditCard[capacity];
+    int buckets = Integer.highestOneBit(capacity * 2 - 1) * 2;
+    table = new int[buckets];
+    mask = buckets - 1;
+  }
+
+  /**
+   * The number of cards in the index.
+   */
+  public int size() {
+    return size + oddCards.size();
+  }
+
+  /**
+   * Makes room for {@code capacity} cards, so that adding that many does not have to grow the
+   * index again and again.
+   *
+   * @param capacity The expected number of cards.
+   */
+  public void ensureCapacity(int capacity) {
+    if (capacity > cards.length) {
+      keys = Arrays.copyOf(keys, capacity);
+      digits = Arrays.copyOf(digits, capacity);
+      cards = Arrays.copyOf(cards, capacity);
+    }
+    int buckets = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) * 2;
+    if (buckets > table.length) {
+      rehash(buckets);
+    }
+  }
+
+  /**
+   * Adds a card, replacing any card with the same number.
+   *
+   * @param card The card to add.
+   */
+  public void put(CreditCard card) {
+    String cardNumber = card.getCardNumber();
+    int count = TransactionBatch.digitCount(cardNumber);
+    if (count == 0) {
+      oddCards.put(cardNumber, card);
+      return;
+    }
+    long key = Long.parseLong(cardNumber);
+    int bucket = find(key, count);
+    if (table[bucket] != 0) {
+      cards[table[bucket] - 1] = card;
+      return;
+    }
+
+    if (size == cards.length) {
+      keys = Arrays.copyOf(keys, size * 2);
+      digits = Arrays.copyOf(digits, size * 2);
+      cards = Arrays.copyOf(cards, size * 2);
+    }
+    keys[size] = key;
+    digits[size] = (byte) count;
+    cards[size] = card;
+    table[bucket] = ++size;
+    if (size * 2 > table.length) {
+      rehash(table.length * 2);
+    }
+  }
+
+  /**
+   * Finds a card by a card number held as a long.
+   *
+   * @param cardNumber The card number.
+   * @param digitCount The number of digits the card number has, leading zeros included.
+   * @return The card, or null if there is none with that number.
+   */
+  public CreditCard get(long cardNumber, int digitCount) {
+    int slot = table[find(cardNumber, digitCount)];
+    return slot == 0 ? null : cards[slot - 1];
+  }
+
+  /**
+   * Finds a card by its card number.
+   *
+   * @param cardNumber The card number.
+   * @return The card, or null if there is none with that number.
+   */
+  public CreditCard get(String cardNumber) {
+    int count = TransactionBatch.digitCount(cardNumber);
+    if (count == 0) {
+      return oddCards.get(cardNumber);
+    }
+    long key = 0;
+    for (int j = 0; j < count; j++) {
+      key = key * 10 + (cardNumber.charAt(j) - '0');
+    }
+    return get(key, count);
+  }
+
+  /**
+   * A read-only Map view of the index, keyed by card number. It iterates over the cards in the
+   * order they were added.
+   */
+  public Map<String, CreditCard> asMap() {
+    return view;
+  }
+
+  /**
+   * The bucket holding the card number, or the empty bucket where it would go.
+   */
+  private int find(long key, int count) {
+    int bucket = hash(key) & mask;
+    while (true) {
+      int slot = table[bucket];
+      if (slot == 0 || (keys[slot - 1] == key && digits[slot - 1] == count)) {
+        return bucket;
+      }
+      bucket = (bucket + 1) & mask;
+    }
+  }
+
+  private void rehash(int buckets) {
+    table = new int[buckets];
+    mask = buckets - 1;
+    for (int slot = 0; slot < size; slot++) {
+      int bucket = hash(keys[slot]) & mask;
+      while (table[bucket] != 0) {
+        bucket = (bucket + 1) & mask;
+      }
+      table[bucket] = slot + 1;
+    }
+  }
+
+  static int hash(long key) {
+    // Finalizer of MurmurHash3, so that card numbers sharing low digits spread over the table
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+  /**
+   * Read-only Map over the index.
+   */
+  private class MapView extends AbstractMap<String, CreditCard> {
+
+    @Override
+    public int size() {
+      return AccountIndex.this.size();
+    }
+
+    @Override
+    public CreditCard get(Object key) {
+      return key instanceof String ? AccountIndex.this.get((String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return get(key) != null;
+    }
+
+    @Override
+    public Set<Entry<String, CreditCard>> entrySet() {
+      return new AbstractSet<Entry<String, CreditCard>>() {
+        @Override
+        public int size() {
+          return AccountIndex.this.size();
+        }
+
+        @Override
+        public Iterator<Entry<String, CreditCard>> iterator() {
+          Iterator<Entry<String, CreditCard>> odd = oddCards.entrySet().iterator();
+          return new Iterator<Entry<String, CreditCard>>() {
+            private int slot;
+
+            @Override
+            public boolean hasNext() {
+              return slot < size || odd.hasNext();
+            }
+
+            @Override
+            public Entry<String, CreditCard> next() {
+              if (slot < size) {
+                CreditCard card = cards[slot++];
+                return new SimpleImmutableEntry<>(card.getCardNumber(), card);
+              }
+              if (!odd.hasNext()) {
+                throw new NoSuchElementException();
+              }
+              Entry<String, CreditCard> entry = odd.next();
+              return new SimpleImmutableEntry<>(entry.getKey(), entry.getValue());
+            }
+          };
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,613 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Holds accounts outside the Java heap, for account counts at which a {@link CreditCard} object per
+ * card costs too much heap and too much garbage collection. Each account is a fixed-width slot of a
+ * direct buffer, or of a file mapped into memory, holding its card number, balance, limit,
+ * overdraft, rebate rate and monthly total:
+ * <pre>
+ * slot     long card number, long balance in cents, long limit in cents,
+ *          long overdraft in cents, long monthly total in cents, int rebate in basis points,
+ *          int holder name string index, int first log row, int last log row,
+ *          byte card number digit count, 7 unused bytes
+ * </pre>
+ * A slot is 64 bytes, one cache line. The buffers are allocated a chunk of slots at a time and
+ * never move, so the ledger grows without copying the accounts. Card numbers are found through an
+ * open-addressing table of slot numbers, like {@link AccountIndex}; holder names are kept once
+ * however many cards share them, and a card number that does not fit in a long is stored with a
+ * digit count of 0 and the index of its text among those names.
+ *
+ * <p>The cards handed out by {@link #get(String)} and {@link #asMap()} are views of a slot: they
+ * hold nothing but the ledger and the slot number, so they may be created for a single
+ * authorization and dropped. The balance is updated with a compare-and-set on the slot and the
+ * monthly total is read without a lock. Recording an approved transaction does lock, but only one
+ * stripe of the slots: the transactions of the month are appended to a columnar log per stripe,
+ * each slot chaining its own rows, and the log of a stripe is emptied once every card of the
+ * stripe has closed its month.
+ *
+ * <p>Only the slots are off the heap. The month logs, the holder names and the card numbers that
+ * do not fit in a long are ordinary heap objects; names take little room as they are shared, but
+ * the logs grow with the transactions of the month.
+ *
+ * <p>Accounts must be added before transactions are authorized from several threads. A ledger in
+ * a file should be closed when it is no longer used; the file is only scratch space for the
+ * accounts, which are saved with an {@link AccountSnapshot}.
+ */
+public class AccountLedger implements Closeable {
+
+  static final int SLOT_SIZE = 64;
+
+  private static final int CARD_NUMBER = 0;
+  private static final int BALANCE = 8;
+  private static final int LIMIT = 16;
+  private static final int OVERDRAFT = 24;
+  private static final int MONTHLY_TOTAL = 32;
+  private static final int REBATE = 40;
+  private static final int HOLDER = 44;
+  private static final int FIRST_ROW = 48;
+  private static final int LAST_ROW = 52;
+  private static final int DIGITS = 56;
+
+  // Slots per chunk, a power of two: 4 MB of buffer at a time
+  private static final int CHUNK_SHIFT = 16;
+  private static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+  private static final long CHUNK_BYTES = (long) CHUNK_SLOTS * SLOT_SIZE;
+
+  // Month logs, and the locks guarding them, a power of two; slot s belongs to stripe s & mask
+  private static final int STRIPES = 64;
+
+  // Atomic access to the longs of a buffer, which must be direct and in native order
+  private static final VarHandle LONGS =
+      MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+  // The file the slots are mapped from, or null for direct buffers
+  private final FileChannel channel;
+  private ByteBuffer[] chunks = new ByteBuffer[0];
+  private int size;
+
+  // Slot plus one for each hash bucket, 0 for an empty bucket. Kept at most half full.
+  private int[] table = new int[16];
+  private int mask = table.length - 1;
+
+  // Holder names and card numbers that do not fit in a long, by string index
+  private final ArrayList<String> strings = new ArrayList<>();
+  private final HashMap<String, Integer> stringIndex = new HashMap<>();
+  private final HashMap<String, Integer> oddSlots = new HashMap<>();
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  private final Map<String, CreditCard> view = new MapView();
+
+  /**
+   * Creates an empty ledger in direct buffers.
+   */
+  public AccountLedger() {
+    channel = null;
+    createStripes();
+  }
+
+  /**
+   * Creates an empty ledger in a file mapped into memory, replacing the contents of the file. The
+   * operating system pages the accounts in and out of the file, so the ledger may hold more
+   * accounts than fit in memory.
+   *
+   * @param filename Name of the file.
+   * @throws IOException If the file cannot be created.
+   */
+  public AccountLedger(String filename) throws IOException {
+    channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    createStripes();
+  }
+
+  private void createStripes() {
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * The number of accounts in the ledger.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Adds an account with the default limit, overdraft and rebate rate, replacing any account with
+   * the same number.
+   *
+   * @param cardNumber A valid card number.
+   * @param accountHolder The holder of the credit card.
+   * @param balanceCents The current balance in cents.
+   * @return A view of the account.
+   */
+  public CreditCard add(String cardNumber, String accountHolder, long balanceCents) {
+    int digits = TransactionBatch.digitCount(cardNumber);
+    if (digits > 0) {
+      return add(Long.parseLong(cardNumber), digits, accountHolder, balanceCents);
+    }
+    synchronized (this) {
+      Integer existing = oddSlots.get(cardNumber);
+      int slot;
+      if (existing != null) {
+        slot = existing;
+        dropMonth(slot);
+      } else {
+        slot = newSlot();
+        oddSlots.put(cardNumber, slot);
+      }
+      fill(slot, stringIndexOf(cardNumber), 0, accountHolder, balanceCents);
+      return new CreditCard(this, slot);
+    }
+  }
+
+  /**
+   * Adds an account with the default limit, overdraft and rebate rate, from a card number held as
+   * a long, replacing any account with the same number.
+   *
+   * @param cardNumber A valid card number.
+   * @param digits The number of digits of the card number, leading zeros included.
+   * @param accountHolder The holder of the credit card.
+   * @param balanceCents The current balance in cents.
+   * @return A view of the account.
+   */
+  public synchronized CreditCard add(long cardNumber, int digits, String accountHolder,
+      long balanceCents) {
+    int bucket = find(cardNumber, digits);
+    if (table[bucket] != 0) {
+      int slot = table[bucket] - 1;
+      dropMonth(slot);
+      fill(slot, cardNumber, digits, accountHolder, balanceCents);
+      return new CreditCard(this, slot);
+    }
+    int slot = newSlot();
+    fill(slot, cardNumber, digits, accountHolder, balanceCents);
+    table[bucket] = slot + 1;
+    if (size * 2 > table.length) {
+      rehash(table.length * 2);
+    }
+    return new CreditCard(this, slot);
+  }
+
+  /**
+   * Adds a copy of a card, its month so far included, replacing any account with the same
+   * number.
+   *
+   * @param card The card to copy.
+   * @return A view of the account.
+   */
+  public CreditCard add(CreditCard card) {
+    CreditCard account = add(card.getCardNumber(), card.getAccountHolder(), 0L);
+    account.restoreMonth(card.getCurrentBalanceCents(), card.getMonthlyLog());
+    return account;
+  }
+
+  private int newSlot() {
+    if (size == chunks.length * CHUNK_SLOTS) {
+      chunks = Arrays.copyOf(chunks, chunks.length + 1);
+      chunks[chunks.length - 1] = allocateChunk(chunks.length - 1);
+    }
+    return size++;
+  }
+
+  private ByteBuffer allocateChunk(int chunk) {
+    if (channel == null) {
+      return ByteBuffer.allocateDirect((int) CHUNK_BYTES).order(ByteOrder.nativeOrder());
+    }
+    try {
+      MappedByteBuffer mapped =
+          channel.map(FileChannel.MapMode.READ_WRITE, chunk * CHUNK_BYTES, CHUNK_BYTES);
+      mapped.order(ByteOrder.nativeOrder());
+      return mapped;
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not grow the ledger file", e);
+    }
+  }
+
+  // Starts a slot over as a new account
+  private void fill(int slot, long cardNumber, int digits, String accountHolder,
+      long balanceCents) {
+    ByteBuffer buf = buffer(slot);
+    int at = offset(slot);
+    buf.putLong(at + CARD_NUMBER, cardNumber);
+    LONGS.setVolatile(buf, at + BALANCE, balanceCents);
+    buf.putLong(at + LIMIT, CreditCard.DEFAULT_LIMIT_CENTS);
+    buf.putLong(at + OVERDRAFT, CreditCard.DEFAULT_OVERDRAFT_CENTS);
+    LONGS.setVolatile(buf, at + MONTHLY_TOTAL, 0L);
+    buf.putInt(at + REBATE, (int) CreditCard.DEFAULT_REBATE_BASIS_POINTS);
+    buf.putInt(at + HOLDER, stringIndexOf(accountHolder));
+    buf.putInt(at + FIRST_ROW, -1);
+    buf.putInt(at + LAST_ROW, -1);
+    buf.put(at + DIGITS, (byte) digits);
+  }
+
+  private int stringIndexOf(String s) {
+    if (s == null) {
+      return -1;
+    }
+    Integer index = stringIndex.get(s);
+    if (index == null) {
+      index = strings.size();
+      strings.add(s);
+      stringIndex.put(s, index);
+    }
+    return index;
+  }
+
+  /**
+   * Finds an account by a card number held as a long.
+   *
+   * @param cardNumber The card number.
+   * @param digits The number of digits the card number has, leading zeros included.
+   * @return A view of the account, or null if there is none with that number.
+   */
+  public CreditCard get(long cardNumber, int digits) {
+    int slot = table[find(cardNumber, digits)];
+    return slot == 0 ? null : new CreditCard(this, slot - 1);
+  }
+
+  /**
+   * Finds an account by its card number.
+   *
+   * @param cardNumber The card number.
+   * @return A view of the account, or null if there is none with that number.
+   */
+  public CreditCard get(String cardNumber) {
+    int digits = TransactionBatch.digitCount(cardNumber);
+    if (digits == 0) {
+      Integer slot = oddSlots.get(cardNumber);
+      return slot == null ? null : new CreditCard(this, slot);
+    }
+    long key = 0;
+    for (int j = 0; j < digits; j++) {
+      key = key * 10 + (cardNumber.charAt(j) - '0');
+    }
+    return get(key, digits);
+  }
+
+  /**
+   * A read-only Map view of the ledger, keyed by card number. It iterates over the accounts in the
+   * order they were added, creating a view of each.
+   */
+  public Map<String, CreditCard> asMap() {
+    return view;
+  }
+
+  /**
+   * The bucket holding the card number, or the empty bucket where it would go.
+   */
+  private int find(long key, int digits) {
+    int bucket = AccountIndex.hash(key) & mask;
+    while (true) {
+      int slot = table[bucket];
+      if (slot == 0
+          || (cardNumberValue(slot - 1) == key && cardNumberDigits(slot - 1) == digits)) {
+        return bucket;
+      }
+      bucket = (bucket + 1) & mask;
+    }
+  }
+
+  private void rehash(int buckets) {
+    table = new int[buckets];
+    mask = buckets - 1;
+    for (int slot = 0; slot < size; slot++) {
+      if (cardNumberDigits(slot) == 0) {
+        continue;
+      }
+      int bucket = AccountIndex.hash(cardNumberValue(slot)) & mask;
+      while (table[bucket] != 0) {
+        bucket = (bucket + 1) & mask;
+      }
+      table[bucket] = slot + 1;
+    }
+  }
+
+  private ByteBuffer buffer(int slot) {
+    return chunks[slot >>> CHUNK_SHIFT];
+  }
+
+  private static int offset(int slot) {
+    return (slot & (CHUNK_SLOTS - 1)) * SLOT_SIZE;
+  }
+
+  /**
+   * The card number of a slot.
+   */
+  String cardNumber(int slot) {
+    int digits = cardNumberDigits(slot);
+    long value = cardNumberValue(slot);
+    return digits > 0 ? TransactionBatch.digitsToString(value, digits) : strings.get((int) value);
+  }
+
+  /**
+   * The card number of a slot as a long, if its digit count is not 0.
+   */
+  long cardNumberValue(int slot) {
+    return buffer(slot).getLong(offset(slot) + CARD_NUMBER);
+  }
+
+  /**
+   * The number of digits of the card number of a slot, or 0 if it does not fit in a long.
+   */
+  int cardNumberDigits(int slot) {
+    return buffer(slot).get(offset(slot) + DIGITS);
+  }
+
+  /**
+   * The holder name of a slot.
+   */
+  String accountHolder(int slot) {
+    int index = buffer(slot).getInt(offset(slot) + HOLDER);
+    return index < 0 ? null : strings.get(index);
+  }
+
+  long limitCents(int slot) {
+    return buffer(slot).getLong(offset(slot) + LIMIT);
+  }
+
+  long overdraftCents(int slot) {
+    return buffer(slot).getLong(offset(slot) + OVERDRAFT);
+  }
+
+  long rebateBasisPoints(int slot) {
+    return buffer(slot).getInt(offset(slot) + REBATE);
+  }
+
+  long balanceCents(int slot) {
+    return (long) LONGS.getVolatile(buffer(slot), offset(slot) + BALANCE);
+  }
+
+  void setBalanceCents(int slot, long cents) {
+    LONGS.setVolatile(buffer(slot), offset(slot) + BALANCE, cents);
+  }
+
+  /**
+   * Adds to the balance of a slot and returns the new balance.
+   */
+  long addBalanceCents(int slot, long cents) {
+    return (long) LONGS.getAndAdd(buffer(slot), offset(slot) + BALANCE, cents) + cents;
+  }
+
+  /**
+   * Adds a purchase to the balance of a slot unless it would exceed the limit plus the overdraft,
+   * with a compare-and-set retried if another thread changed the balance in between.
+   *
+   * @return False if the purchase would exceed the limit, true once it is added.
+   */
+  boolean reserve(int slot, long amount) {
+    ByteBuffer buf = buffer(slot);
+    int at = offset(slot);
+    long allowed = buf.getLong(at + OVERDRAFT) + buf.getLong(at + LIMIT);
+    while (true) {
+      long balance = (long) LONGS.getVolatile(buf, at + BALANCE);
+      if (allowed - (balance + amount) < 0) {
+        return false;
+      }
+      if (LONGS.compareAndSet(buf, at + BALANCE, balance, balance + amount)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * The amount purchased on a slot since its month was last closed, in cents.
+   */
+  long monthlyTotalCents(int slot) {
+    return (long) LONGS.getVolatile(buffer(slot), offset(slot) + MONTHLY_TOTAL);
+  }
+
+  /**
+   * Adds an approved transaction to the month of a slot.
+   */
+  void record(int slot, Transaction t) {
+    Stripe stripe = stripeOf(slot);
+    synchronized (stripe) {
+      int row = stripe.log.size();
+      stripe.log.add(t);
+      stripe.chain(slot, row);
+    }
+  }
+
+  /**
+   * Adds an approved record of a columnar batch to the month of a slot.
+   */
+  void record(int slot, TransactionBatch batch, int i) {
+    Stripe stripe = stripeOf(slot);
+    synchronized (stripe) {
+      int row = stripe.log.size();
+      stripe.log.add(batch, i);
+      stripe.chain(slot, row);
+    }
+  }
+
+  /**
+   * A copy of the transactions of a slot since its month was last closed.
+   */
+  TransactionBatch monthlyLog(int slot) {
+    TransactionBatch month = new TransactionBatch(0);
+    Stripe stripe = stripeOf(slot);
+    synchronized (stripe) {
+      stripe.copyMonth(slot, month);
+    }
+    return month;
+  }
+
+  /**
+   * Ends the month of a slot: moves its transactions into {@code month}, starts its monthly total
+   * over and returns the total it had, in cents.
+   */
+  long closeMonth(int slot, TransactionBatch month) {
+    Stripe stripe = stripeOf(slot);
+    synchronized (stripe) {
+      stripe.copyMonth(slot, month);
+      return stripe.dropMonth(slot);
+    }
+  }
+
+  /**
+   * Puts a slot back in the middle of a month, with its balance and the transactions so far.
+   */
+  void restoreMonth(int slot, long balanceCents, TransactionBatch month) {
+    Stripe stripe = stripeOf(slot);
+    synchronized (stripe) {
+      stripe.dropMonth(slot);
+      setBalanceCents(slot, balanceCents);
+      for (int i = 0; i < month.size(); i++) {
+        int row = stripe.log.size();
+        stripe.log.add(month, i);
+        stripe.chain(slot, row);
+      }
+    }
+  }
+
+  // Unchains the rows of a slot and starts its monthly total over
+  private void dropMonth(int slot) {
+    Stripe stripe = stripeOf(slot);
+    synchronized (stripe) {
+      stripe.dropMonth(slot);
+    }
+  }
+
+  private Stripe stripeOf(int slot) {
+    return stripes[slot & (STRIPES - 1)];
+  }
+
+  /**
+   * The month log of the slots of one stripe. Every method must be called holding its monitor.
+   */
+  private final class Stripe {
+    // The transactions of the month of the slots; nextRow chains the rows of the same slot
+    private final TransactionBatch log = new TransactionBatch(0);
+    private int[] nextRow = new int[0];
+    private int liveRows;
+
+    void chain(int slot, int row) {
+      if (row >= nextRow.length) {
+        nextRow = Arrays.copyOf(nextRow, Math.max(16, nextRow.length * 2));
+      }
+      nextRow[row] = -1;
+      ByteBuffer buf = buffer(slot);
+      int at = offset(slot);
+      int last = buf.getInt(at + LAST_ROW);
+      if (last < 0) {
+        buf.putInt(at + FIRST_ROW, row);
+      } else {
+        nextRow[last] = row;
+      }
+      buf.putInt(at + LAST_ROW, row);
+      LONGS.setVolatile(buf, at + MONTHLY_TOTAL,
+          buf.getLong(at + MONTHLY_TOTAL) + log.amountCents(row));
+      liveRows++;
+    }
+
+    void copyMonth(int slot, TransactionBatch month) {
+      for (int row = buffer(slot).getInt(offset(slot) + FIRST_ROW); row >= 0;
+          row = nextRow[row]) {
+        month.add(log, row);
+      }
+    }
+
+    // Returns the monthly total the slot had
+    long dropMonth(int slot) {
+      ByteBuffer buf = buffer(slot);
+      int at = offset(slot);
+      for (int row = buf.getInt(at + FIRST_ROW); row >= 0; row = nextRow[row]) {
+        liveRows--;
+      }
+      long total = buf.getLong(at + MONTHLY_TOTAL);
+      buf.putInt(at + FIRST_ROW, -1);
+      buf.putInt(at + LAST_ROW, -1);
+      LONGS.setVolatile(buf, at + MONTHLY_TOTAL, 0L);
+      if (liveRows == 0) {
+        // Every month of the stripe is closed, so no row of its log is chained any more
+        log.clear();
+      }
+      return total;
+    }
+  }
+
+  /**
+   * Closes the file of a ledger created in a file. The views of its accounts must not be used
+   * afterwards.
+   *
+   * @throws IOException If the file cannot be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+  }
+
+  /**
+   * Read-only Map over the ledger.
+   */
+  private class MapView extends AbstractMap<String, CreditCard> {
+
+    @Override
+    public int size() {
+      return AccountLedger.this.size();
+    }
+
+    @Override
+    public CreditCard get(Object key) {
+      return key instanceof String ? AccountLedger.this.get((String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return get(key) != null;
+    }
+
+    @Override
+    public Set<Entry<String, CreditCard>> entrySet() {
+      return new AbstractSet<Entry<String, CreditCard>>() {
+        @Override
+        public int size() {
+          return AccountLedger.this.size();
+        }
+
+        @Override
+        public Iterator<Entry<String, CreditCard>> iterator() {
+          return new Iterator<Entry<String, CreditCard>>() {
+            private int slot;
+
+            @Override
+            public boolean hasNext() {
+              return slot < size;
+            }
+
+            @Override
+            public Entry<String, CreditCard> next() {
+              if (slot >= size) {
+                throw new NoSuchElementException();
+              }
+              CreditCard card = new CreditCard(AccountLedger.this, slot++);
+              return new SimpleImmutableEntry<>(card.getCardNumber(), card);
+            }
+          };
+        }
+      };
+    }
+  }
+}
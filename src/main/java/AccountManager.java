@@ -1,11 +1,19 @@
-import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * @author Yong Hoon Do, yhdo@ucsd.edu
@@ -14,21 +22,147 @@ import java.util.*;
  */
 public class AccountManager {
 
-  // Used by the methods we provide for reading in the transactions
-  // from a file.  You don't need to worry about this, and please
-  // do not change it.
-  private static final String DATE_FORMAT = "yyyy-MM-dd";
+  // Upper bound on the number of card numbers remembered by the validation cache of a single
+  // processTransactions run.
+  private static final int VALIDATION_CACHE_CAPACITY = 1 << 16;
 
-  // The accounts managed by this AccountManager object.
+  // Number of records read from a transactions file at a time
+  private static final int BATCH_SIZE = 4096;
+
+  private static final String STATEMENT_SEPARATOR =
+      "******************************************************\n";
+
+  // Buffer of each thread rendering statements in parallel
+  private static final int STATEMENT_BUFFER_SIZE = 64 * 1024;
+
+  // Most cards in one slice of statements rendered in parallel
+  private static final int STATEMENT_SLICE_CARDS = 1024;
+
+  // The accounts managed by this AccountManager object, keyed by card number.
   // This is public only to make grading your assignments easier.
   // It would be better design to make it private.
-  public HashMap<String, CreditCard> accounts;
+  // It is a read-only view of the index or the ledger below; add accounts with loadAccounts.
+  public Map<String, CreditCard> accounts;
+
+  // Finds accounts by card number held as a long, without creating any String
+  private final AccountIndex index;
+
+  // Holds the accounts off the heap instead of the index, if set
+  private final AccountLedger ledger;
+
+  // Whether loaded cards may authorize transactions from several threads at once
+  private final boolean concurrent;
+
+  // Receives the per-record diagnostics of loadAccounts; null keeps loading quiet
+  private AsyncLogger log;
+
+  // Records every authorization and closed month, if set
+  private Journal journal;
+
+  // Velocity rules of every card, if set
+  private VelocityLimits velocityLimits;
+
+  // Indexes every approved transaction on a card, if set
+  private TransactionIndex transactionIndex;
 
   /**
    * Construct a new, empty, AccountManager object. To load accounts, use the loadAccounts method.
    */
   public AccountManager() {
-    accounts = new HashMap<>();
+    this(false);
+  }
+
+  /**
+   * Construct a new, empty, AccountManager object. To load accounts, use the loadAccounts method.
+   *
+   * @param concurrent Whether the loaded cards are created in concurrent mode, so that many threads
+   * can authorize transactions against them at the same time.
+   */
+  public AccountManager(boolean concurrent) {
+    index = new AccountIndex();
+    accounts = index.asMap();
+    ledger = null;
+    this.concurrent = concurrent;
+  }
+
+  /**
+   * Construct a new AccountManager whose accounts are kept in an off-heap ledger rather than as a
+   * CreditCard object each. Loaded accounts are added to the ledger, and the cards of {@link
+   * #accounts} are views of its slots. Transactions may be authorized from several threads at
+   * once. Velocity rules cannot be set on the accounts of a ledger.
+   *
+   * @param ledger The ledger, which should be empty.
+   */
+  public AccountManager(AccountLedger ledger) {
+    index = new AccountIndex();
+    accounts = ledger.asMap();
+    this.ledger = ledger;
+    concurrent = true;
+  }
+
+  /**
+   * Sets where per-record diagnostics go, such as each account read by {@link
+   * #loadAccounts(String)}. They are written on the logger's own thread, so loading does not wait
+   * on the terminal.
+   *
+   * @param log The logger for diagnostics, or null for a quiet run, which is the default.
+   */
+  public void setLog(AsyncLogger log) {
+    this.log = log;
+  }
+
+  /**
+   * Sets a journal recording every authorization, approved or denied, and every month closed by
+   * {@link #generateStatements(String)}. A failure to append to the journal stops processing with
+   * an {@link UncheckedIOException}, as the cards would otherwise change without a record.
+   *
+   * @param journal The journal, or null to stop journaling.
+   */
+  public void setJournal(Journal journal) {
+    this.journal = journal;
+  }
+
+  /**
+   * The journal set by {@link #setJournal(Journal)}, or null.
+   */
+  public Journal getJournal() {
+    return journal;
+  }
+
+  /**
+   * Sets velocity rules on every card, such as at most so many purchases or so much spent per
+   * rolling day or week. A purchase that breaks a rule is denied. The rules apply to the cards
+   * loaded so far and to every card loaded or restored later.
+   *
+   * @param limits The rules, or null for none, which is the default.
+   */
+  public void setVelocityLimits(VelocityLimits limits) {
+    if (ledger != null && limits != null) {
+      System.err.println("Velocity limits are not supported for the accounts of a ledger");
+      return;
+    }
+    velocityLimits = limits;
+    for (CreditCard card : accounts.values()) {
+      card.setVelocityLimits(limits);
+    }
+  }
+
+  /**
+   * Sets an index that every transaction approved on a card is added to from then on, for
+   * queries by vendor and date such as the top vendors of a week. Transactions on card numbers
+   * with no account, and denied ones, are not indexed.
+   *
+   * @param index The index, or null to stop indexing, which is the default.
+   */
+  public void setTransactionIndex(TransactionIndex index) {
+    transactionIndex = index;
+  }
+
+  /**
+   * The index set by {@link #setTransactionIndex(TransactionIndex)}, or null.
+   */
+  public TransactionIndex getTransactionIndex() {
+    return transactionIndex;
   }
 
   /**
@@ -42,67 +176,193 @@ public class AccountManager {
       return false;
     }
 
-    String[] arr = cardNum.split("");
-    int[] cardNumber = new int[arr.length];
-    for (int i = 0; i < arr.length; i++) {
-      if (!Character.isDigit(arr[i].charAt(0))) {
+    // Walk the digits right to left, doubling every second one starting with the digit just left
+    // of the check digit. Scanning the chars directly keeps this free of any allocation.
+    int sum = 0;
+    boolean doubled = false;
+    for (int i = cardNum.length() - 1; i >= 0; i--) {
+      char c = cardNum.charAt(i);
+      if (c < '0' || c > '9') {
         // we only parse a digit, but not parsing other characters.
         return false;
       }
-      cardNumber[i] = Integer.parseInt(arr[i]);
-    }
-
-    for (int i = cardNumber.length - 2; i >= 0; i -= 2) {
-      cardNumber[i] = 2 * cardNumber[i];
-      if (cardNumber[i] >= 10) {
-        cardNumber[i] = cardNumber[i] - 9;
+      int digit = c - '0';
+      if (doubled) {
+        digit *= 2;
+        if (digit >= 10) {
+          digit -= 9;
+        }
       }
+      sum += digit;
+      doubled = !doubled;
     }
 
+    return sum % 10 == 0;
+  }
+
+  /**
+   * Uses Luhn's Algorithm to validate a card number held as a long. Leading zeros do not change
+   * the result, so the number of digits the card number was written with does not matter.
+   *
+   * @param cardNum Card number to validate
+   * @return True if card number is valid, false otherwise.
+   */
+  public static boolean validateCardNumber(long cardNum) {
+    if (cardNum < 0) {
+      return false;
+    }
     int sum = 0;
-    for (int i = 0; i < cardNumber.length - 1; i++) {
-      sum += cardNumber[i];
+    boolean doubled = false;
+    for (long rest = cardNum; rest > 0; rest /= 10) {
+      int digit = (int) (rest % 10);
+      if (doubled) {
+        digit *= 2;
+        if (digit >= 10) {
+          digit -= 9;
+        }
+      }
+      sum += digit;
+      doubled = !doubled;
     }
-    sum = sum * 9;
-    sum = sum % 10;
+    return sum % 10 == 0;
+  }
 
-    return cardNumber[cardNumber.length - 1] == sum;
+  /**
+   * Validates a card number, consulting the given cache of previous answers first. New answers are
+   * only remembered while the cache holds fewer than {@link #VALIDATION_CACHE_CAPACITY} entries, so
+   * the cache stays bounded however many distinct card numbers a run sees.
+   *
+   * @param cardNum Card number to validate
+   * @param cache Known-valid and known-invalid card numbers for the current run.
+   * @return True if card number is valid, false otherwise.
+   */
+  static boolean validateCardNumber(String cardNum, HashMap<String, Boolean> cache) {
+    Boolean known = cache.get(cardNum);
+    if (known != null) {
+      return known;
+    }
+    boolean valid = validateCardNumber(cardNum);
+    if (cardNum != null && cache.size() < VALIDATION_CACHE_CAPACITY) {
+      cache.put(cardNum, valid);
+    }
+    return valid;
   }
 
+  /**
+   * Loads the accounts listed in a file. Each line holds a card number, the name of the account
+   * holder and the current balance. A malformed line is reported with its line number and skipped.
+   * Each account read is described on the logger given to {@link #setLog(AsyncLogger)}, if any.
+   *
+   * @param filename Name of the accounts file.
+   * @return The card numbers that failed validation; no account is created for those.
+   */
   public ArrayList<String> loadAccounts(String filename) {
     ArrayList<String> invalid = new ArrayList<>();
-    try (Scanner scanner = new Scanner(new File(filename))) {
+    long start = Metrics.start();
+    long records = 0;
+    try (CsvRecordReader reader = new CsvRecordReader(filename)) {
       // Skip the header
-      scanner.nextLine();
+      reader.nextRecord();
 
       // Read the credit card data
-      while (scanner.hasNextLine()) {
-        String[] data = scanner.nextLine().split(",");
-        System.out.println("------------------------------------");
-        String cardNumber = data[0];
-        System.out.println("Card number: " + cardNumber);
-        String accountHolder = data[1];
-        System.out.println("Account holder: " + accountHolder);
-        String bal = data[2];
-        System.out.println("Balance: " + bal);
-        double cardBalance = Double.parseDouble(bal);
-        if (validateCardNumber(cardNumber)) {
-          CreditCard card = new CreditCard(cardNumber, accountHolder);
-          card.setCurrentBalance(cardBalance);
-          accounts.put(cardNumber, card);
-        } else {
-          invalid.add(cardNumber);
+      while (reader.nextRecord()) {
+        records++;
+        try {
+          reader.requireFields(3);
+          String cardNumber = reader.fieldAsString(0);
+          String accountHolder = reader.fieldAsString(1);
+          if (log != null) {
+            log.log("------------------------------------\nCard number: " + cardNumber
+                + "\nAccount holder: " + accountHolder + "\nBalance: " + reader.fieldAsString(2));
+          }
+          long cardBalance = reader.fieldAsCents(2);
+          if (!validateCardNumber(cardNumber)) {
+            invalid.add(cardNumber);
+            Metrics.count(Metrics.Counter.INVALID_ACCOUNTS);
+          } else if (ledger != null) {
+            ledger.add(cardNumber, accountHolder, cardBalance);
+            Metrics.count(Metrics.Counter.ACCOUNTS_LOADED);
+          } else {
+            CreditCard card = new CreditCard(cardNumber, accountHolder, concurrent);
+            card.setCurrentBalanceCents(cardBalance);
+            card.setVelocityLimits(velocityLimits);
+            index.put(card);
+            Metrics.count(Metrics.Counter.ACCOUNTS_LOADED);
+          }
+        } catch (CsvFormatException e) {
+          Metrics.count(Metrics.Counter.MALFORMED_RECORDS);
+          System.err.println("Skipping account at " + e.getMessage());
         }
       }
     } catch (FileNotFoundException e) {
       System.out.println("Accounts file not found");
       e.printStackTrace();
+    } catch (IOException e) {
+      System.err.println("There was a problem reading the accounts file");
     }
+    Metrics.stop(Metrics.Phase.LOAD, start, records);
 
-    System.out.println("------------------------------------");
+    if (log != null) {
+      log.log("------------------------------------");
+    }
     return invalid;
   }
 
+  /**
+   * The figures of a card's month so far, such as its purchases, total, largest purchase and
+   * spend per vendor and per day, read from the card's running totals rather than its
+   * transactions.
+   *
+   * @param cardNumber The card number.
+   * @return The summary, or null if there is no account for the card number.
+   */
+  public MonthSummary getMonthSummary(String cardNumber) {
+    CreditCard card = findAccount(cardNumber);
+    return card == null ? null : card.getMonthSummary();
+  }
+
+  /**
+   * Saves the accounts to a binary {@link AccountSnapshot}, which {@link #loadSnapshot(String)}
+   * loads much faster than {@link #loadAccounts(String)} loads the accounts file.
+   *
+   * @param filename Name of the snapshot file.
+   * @return False if the snapshot could not be written, true otherwise.
+   */
+  public boolean saveSnapshot(String filename) {
+    try {
+      AccountSnapshot.write(filename, accounts.values());
+      return true;
+    } catch (IOException e) {
+      System.err.println("There was a problem writing the snapshot file");
+      return false;
+    }
+  }
+
+  /**
+   * Loads the accounts of a snapshot written by {@link #saveSnapshot(String)}. The card numbers
+   * were validated when they were first loaded, so they are not checked again.
+   *
+   * @param filename Name of the snapshot file.
+   * @return False if the snapshot could not be read, true otherwise.
+   */
+  public boolean loadSnapshot(String filename) {
+    long start = Metrics.start();
+    try {
+      long count = ledger != null
+          ? AccountSnapshot.read(filename, ledger)
+          : AccountSnapshot.read(filename, concurrent, index);
+      if (velocityLimits != null) {
+        setVelocityLimits(velocityLimits);
+      }
+      Metrics.count(Metrics.Counter.ACCOUNTS_LOADED, count);
+      Metrics.stop(Metrics.Phase.LOAD, start, count);
+      return true;
+    } catch (IOException e) {
+      System.err.println("There was a problem reading the snapshot file: " + e.getMessage());
+      return false;
+    }
+  }
+
   /**
    * Process a list of transactions from a file. As each transaction is processed, the balance of
    * the corresponding credit card is adjusted if the transaction is allowed.  If the transaction is
@@ -113,8 +373,253 @@ public class AccountManager {
    */
   public ArrayList<Transaction>
   processTransactionsFromFile(String transactionsFile) {
-    ArrayList<Transaction> transactions = readTransactionsFromFile(transactionsFile);
-    return processTransactions(transactions);
+    ArrayList<Transaction> denied = new ArrayList<>();
+    processTransactionsFromFile(transactionsFile, denied::add);
+    return denied;
+  }
+
+  /**
+   * Process the transactions of a file while it is being read. Each record is parsed, applied to
+   * the corresponding credit card and then dropped, so memory use does not grow with the size of
+   * the file. Denied transactions are handed to {@code deniedSink} as soon as they are found.
+   *
+   * @param transactionsFile The name of the file where the transactions are listed.
+   * @param deniedSink Receives each denied Transaction, modified to indicate why it was denied.
+   */
+  public void processTransactionsFromFile(String transactionsFile,
+      Consumer<Transaction> deniedSink) {
+    processTransactionsFromFile(transactionsFile, deniedSink, null, 0);
+  }
+
+  /**
+   * Process the transactions of a file while it is being read, like {@link
+   * #processTransactionsFromFile(String, Consumer)}, saving a {@link Checkpoint} every {@code
+   * checkpointInterval} transactions. If the checkpoint file already exists, the run it was saved
+   * by did not finish: the cards are put back as they were at the checkpoint, and processing
+   * resumes with the first record after it. Only transactions denied after the checkpoint are
+   * handed to {@code deniedSink}. The checkpoint file is deleted once the whole file has been
+   * processed. Resuming is reported on the logger given to {@link #setLog(AsyncLogger)}, if any.
+   *
+   * @param transactionsFile The name of the file where the transactions are listed.
+   * @param deniedSink Receives each denied Transaction, modified to indicate why it was denied.
+   * @param checkpointFile The name of the checkpoint file, or null for no checkpoints.
+   * @param checkpointInterval The number of transactions between checkpoints. A checkpoint is only
+   * taken between two batches of records, so the actual interval is rounded up to whole batches.
+   */
+  public void processTransactionsFromFile(String transactionsFile,
+      Consumer<Transaction> deniedSink, String checkpointFile, long checkpointInterval) {
+    processTransactionsFromFile(transactionsFile, deniedSink, checkpointFile, checkpointInterval,
+        0, null);
+  }
+
+  /**
+   * Process the transactions of a file like {@link #processTransactionsFromFile(String,
+   * Consumer)}, carrying on with a run that was cut short. The {@link Journal} of that run must
+   * have been replayed over these accounts: the records of the file it holds, the first of the
+   * file, are skipped, and only transactions denied after them are handed to {@code deniedSink}.
+   * Nothing is processed if the journal is not of this file, as when the transaction it ends with
+   * is not the one the skipped records end with.
+   *
+   * @param transactionsFile The name of the file where the transactions are listed.
+   * @param deniedSink Receives each denied Transaction, modified to indicate why it was denied.
+   * @param replayed What {@link Journal#replay(String, AccountManager)} found in the journal.
+   * @return False if the file could not be read or the journal is not of it, true otherwise.
+   */
+  public boolean resumeTransactionsFromFile(String transactionsFile,
+      Consumer<Transaction> deniedSink, Journal.ReplaySummary replayed) {
+    return processTransactionsFromFile(transactionsFile, deniedSink, null, 0,
+        replayed.getApproved() + replayed.getDenied(), replayed.getLastTransactionNumber());
+  }
+
+  /**
+   * Skips the first {@code skip} records of the file, the last of which must be transaction {@code
+   * lastSkipped}, then processes the rest.
+   */
+  private boolean processTransactionsFromFile(String transactionsFile,
+      Consumer<Transaction> deniedSink, String checkpointFile, long checkpointInterval, long skip,
+      String lastSkipped) {
+    try (CsvRecordReader reader = openTransactions(transactionsFile, checkpointFile)) {
+      // Records are parsed into one reused columnar batch, and only denials become Transactions
+      TransactionBatch batch = new TransactionBatch(BATCH_SIZE);
+      long sinceCheckpoint = 0;
+      while (true) {
+        long start = Metrics.start();
+        int added = batch.readFrom(reader, BATCH_SIZE, e -> {
+          Metrics.count(Metrics.Counter.MALFORMED_RECORDS);
+          System.err.println("Skipping transaction at " + e.getMessage());
+        });
+        Metrics.stop(Metrics.Phase.PARSE, start, added);
+        if (added == 0) {
+          break;
+        }
+        int first = (int) Math.min(skip, batch.size());
+        skip -= first;
+        if (first > 0 && skip == 0 && !batch.transactionNumber(first - 1).equals(lastSkipped)) {
+          System.err.println("The journal does not end with transaction "
+              + batch.transactionNumber(first - 1) + " of " + transactionsFile);
+          return false;
+        }
+        for (int i = first; i < batch.size(); i++) {
+          if (!applyTransaction(batch, i)) {
+            deniedSink.accept(batch.toTransaction(i));
+          }
+        }
+        sinceCheckpoint += added;
+        if (checkpointFile != null && sinceCheckpoint >= checkpointInterval) {
+          Checkpoint.write(checkpointFile, accounts.values(), reader.offset(),
+              reader.lineNumber(), batch.transactionNumber(batch.size() - 1));
+          sinceCheckpoint = 0;
+        }
+        batch.clear();
+      }
+      if (skip > 0) {
+        System.err.println("The journal holds more transactions than " + transactionsFile);
+        return false;
+      }
+      if (checkpointFile != null) {
+        Files.deleteIfExists(Paths.get(checkpointFile));
+      }
+      return true;
+    } catch (FileNotFoundException e) {
+      System.err.println("Could not read from transaction file");
+    } catch (IOException e) {
+      System.err.println("There was a problem reading the transaction file");
+    }
+    return false;
+  }
+
+  /**
+   * Opens a transactions file just after its header, or just after the last checkpoint if there is
+   * one, in which case the cards are first put back as they were at the checkpoint. A checkpoint
+   * that cannot be used is reported and the file is read from the start.
+   */
+  private CsvRecordReader openTransactions(String transactionsFile, String checkpointFile)
+      throws IOException {
+    if (checkpointFile != null) {
+      try {
+        Checkpoint checkpoint = Checkpoint.read(checkpointFile, concurrent);
+        long size = Files.size(Paths.get(transactionsFile));
+        if (checkpoint != null && checkpoint.getOffset() > size) {
+          System.err.println("Ignoring checkpoint " + checkpointFile + ": it is past the end of "
+              + transactionsFile);
+        } else if (checkpoint != null) {
+          for (CreditCard card : checkpoint.getCards()) {
+            if (ledger != null) {
+              ledger.add(card);
+            } else {
+              card.setVelocityLimits(velocityLimits);
+              index.put(card);
+            }
+          }
+          if (log != null) {
+            log.log("Resuming " + transactionsFile + " after transaction "
+                + checkpoint.getLastTransactionNumber() + " at line " + checkpoint.getLineNumber());
+          }
+          return new CsvRecordReader(transactionsFile, checkpoint.getOffset(),
+              checkpoint.getLineNumber());
+        }
+      } catch (NoSuchFileException e) {
+        throw new FileNotFoundException(transactionsFile);
+      } catch (IOException e) {
+        System.err.println("Ignoring checkpoint " + checkpointFile + ": " + e.getMessage());
+      }
+    }
+    CsvRecordReader reader = new CsvRecordReader(transactionsFile);
+    // Skip header
+    reader.nextRecord();
+    return reader;
+  }
+
+  /**
+   * Process the transactions of a large file using several cores to parse it. The file is memory
+   * mapped and parsed into columnar chunks, {@code parallelism} at once. Each chunk is applied in
+   * file order as soon as it is parsed, sharded by card over as many threads like {@link
+   * #processTransactions(List, int)}, and then dropped, so memory use does not grow with the size
+   * of the file and the denials are the same as those of {@link
+   * #processTransactionsFromFile(String)}.
+   *
+   * @param transactionsFile The name of the file where the transactions are listed.
+   * @param parallelism The number of chunks of the file to parse in parallel.
+   * @return A list of denied Transactions, modified to indicate why they were denied.
+   */
+  public ArrayList<Transaction>
+  processTransactionsFromFile(String transactionsFile, int parallelism) {
+    ArrayList<Transaction> denied = new ArrayList<>();
+    ExecutorService pool = parallelism > 1 ? Executors.newFixedThreadPool(parallelism) : null;
+    try {
+      MappedTransactionParser.parse(transactionsFile, parallelism,
+          batch -> processTransactions(batch, pool, parallelism, denied));
+    } catch (IOException e) {
+      System.err.println("Could not read from transaction file");
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
+    return denied;
+  }
+
+  /**
+   * Applies the records of a columnar batch, sharded by card number over {@code shards} tasks of
+   * the pool so that the records of each card keep their order, and adds the denied ones to {@code
+   * denied} in batch order.
+   */
+  private void processTransactions(TransactionBatch batch, ExecutorService pool, int shards,
+      ArrayList<Transaction> denied) {
+    int n = batch.size();
+    boolean[] isDenied = new boolean[n];
+    if (pool == null) {
+      for (int i = 0; i < n; i++) {
+        isDenied[i] = !applyTransaction(batch, i);
+      }
+    } else {
+      // Bucket the record indexes by shard, keeping batch order within each shard
+      int[] shardOf = new int[n];
+      int[] start = new int[shards + 1];
+      for (int i = 0; i < n; i++) {
+        int hash = batch.isNumericCard(i)
+            ? Long.hashCode(batch.cardNumberValue(i))
+            : batch.cardNumber(i).hashCode();
+        shardOf[i] = Math.floorMod(hash, shards);
+        start[shardOf[i] + 1]++;
+      }
+      for (int s = 0; s < shards; s++) {
+        start[s + 1] += start[s];
+      }
+      int[] order = new int[n];
+      int[] next = Arrays.copyOf(start, shards);
+      for (int i = 0; i < n; i++) {
+        order[next[shardOf[i]]++] = i;
+      }
+
+      // Each shard only writes the flags of its own records
+      try {
+        List<Future<?>> results = new ArrayList<>();
+        for (int s = 0; s < shards; s++) {
+          int from = start[s];
+          int to = start[s + 1];
+          results.add(pool.submit(() -> {
+            for (int k = from; k < to; k++) {
+              int i = order[k];
+              isDenied[i] = !applyTransaction(batch, i);
+            }
+          }));
+        }
+        for (Future<?> result : results) {
+          result.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while processing transactions", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Could not process transactions", e.getCause());
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      if (isDenied[i]) {
+        denied.add(batch.toTransaction(i));
+      }
+    }
   }
 
   /**
@@ -129,15 +634,10 @@ public class AccountManager {
   processTransactions(ArrayList<Transaction> transactions) {
     // The transactions that are denied
     ArrayList<Transaction> denied = new ArrayList<>();
+    // Card numbers repeat heavily within a transaction file, so remember the Luhn answers
+    HashMap<String, Boolean> validated = new HashMap<>();
     for (Transaction t : transactions) {
-      if (validateCardNumber(t.getCardNumber())) {
-        // Get the card object corresponding to the card number
-        CreditCard c = accounts.getOrDefault(t.getCardNumber(), null);
-        if (c != null && !c.processTransaction(t)) {
-          denied.add(t);
-        }
-      } else {
-        t.denyTransaction("Invalid account number " + t.getCardNumber());
+      if (!applyTransaction(t, validated)) {
         denied.add(t);
       }
     }
@@ -145,46 +645,250 @@ public class AccountManager {
   }
 
   /**
-   * Read transactions from a file.
+   * Process a columnar batch of transactions. Each record is applied to the corresponding credit
+   * card without creating a Transaction for it; only denied records are turned into Transactions.
    *
-   * YOU DO NOT NEED TO AND SHOULD NOT CHANGE THIS METHOD
+   * @param batch The transactions to process.
+   * @return A list of denied Transactions, modified to indicate why they were denied.
+   */
+  public ArrayList<Transaction> processTransactions(TransactionBatch batch) {
+    ArrayList<Transaction> denied = new ArrayList<>();
+    for (int i = 0; i < batch.size(); i++) {
+      if (!applyTransaction(batch, i)) {
+        denied.add(batch.toTransaction(i));
+      }
+    }
+    return denied;
+  }
+
+  /**
+   * Process a list of transactions on several threads. Transactions are partitioned by card number
+   * into {@code shards} shards, and each shard applies its transactions on its own thread in list
+   * order. Only transactions of the same card depend on each other, so balances and denials are
+   * exactly those of a sequential run, and the denied list keeps the order of {@code transactions}.
    *
-   * @param transactionsFilename Name of transactions data file
-   * @return A list of transactions from the file.
+   * @param transactions A list of transactions.
+   * @param shards The number of threads to spread the cards over.
+   * @return A list of denied Transactions, modified to indicate why they were denied.
    */
-  private ArrayList<Transaction>
-  readTransactionsFromFile(String transactionsFilename) {
-    ArrayList<Transaction> transactions = new ArrayList<>();
-    try { // Read data
-      Scanner scanner = new Scanner(new File(transactionsFilename));
+  public ArrayList<Transaction> processTransactions(List<Transaction> transactions, int shards) {
+    int n = transactions.size();
+    if (shards <= 1 || n == 0) {
+      return processTransactions(new ArrayList<>(transactions));
+    }
 
-      // Use comma as the delimiter
-      scanner.useDelimiter(",|\n");
+    // Bucket the transaction indexes by shard, keeping list order within each shard
+    int[] shardOf = new int[n];
+    int[] start = new int[shards + 1];
+    for (int i = 0; i < n; i++) {
+      shardOf[i] = Math.floorMod(Objects.hashCode(transactions.get(i).getCardNumber()), shards);
+      start[shardOf[i] + 1]++;
+    }
+    for (int s = 0; s < shards; s++) {
+      start[s + 1] += start[s];
+    }
+    int[] order = new int[n];
+    int[] next = Arrays.copyOf(start, shards);
+    for (int i = 0; i < n; i++) {
+      order[next[shardOf[i]]++] = i;
+    }
 
-      // Skip header
-      scanner.nextLine();
+    // Each shard only writes the flags of its own transactions
+    boolean[] isDenied = new boolean[n];
+    ExecutorService pool = Executors.newFixedThreadPool(shards);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int s = 0; s < shards; s++) {
+        int from = start[s];
+        int to = start[s + 1];
+        results.add(pool.submit(() -> {
+          HashMap<String, Boolean> validated = new HashMap<>();
+          for (int k = from; k < to; k++) {
+            int i = order[k];
+            isDenied[i] = !applyTransaction(transactions.get(i), validated);
+          }
+        }));
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while processing transactions", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Could not process transactions", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+
+    ArrayList<Transaction> denied = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      if (isDenied[i]) {
+        denied.add(transactions.get(i));
+      }
+    }
+    return denied;
+  }
+
+  /**
+   * Applies a single transaction to the corresponding credit card, timing it as an authorization.
+   *
+   * @param t The transaction to apply.
+   * @param validated Validation cache of the current run.
+   * @return False if the transaction was denied, true otherwise.
+   */
+  private boolean applyTransaction(Transaction t, HashMap<String, Boolean> validated) {
+    long start = Metrics.start();
+    boolean validNumber = validateCardNumber(t.getCardNumber(), validated);
+    boolean approved = applyTransaction(t, validNumber,
+        validNumber ? findAccount(t.getCardNumber()) : null);
+    Metrics.stop(Metrics.Phase.AUTHORIZE, start, 1);
+    return approved;
+  }
+
+  /**
+   * Authorizes a single transaction as it arrives, applying it to the corresponding credit card if
+   * it is allowed and marking it with the reason if it is denied. Several threads may call this
+   * at once if the accounts were created in concurrent mode.
+   *
+   * @param t The transaction to authorize.
+   * @return False if the transaction was denied, true otherwise.
+   */
+  public boolean authorizeTransaction(Transaction t) {
+    long start = Metrics.start();
+    boolean validNumber = validateCardNumber(t.getCardNumber());
+    boolean approved = applyTransaction(t, validNumber,
+        validNumber ? findAccount(t.getCardNumber()) : null);
+    Metrics.stop(Metrics.Phase.AUTHORIZE, start, 1);
+    return approved;
+  }
+
+  /**
+   * Applies a single transaction whose card number was already validated and looked up, and
+   * journals the outcome. This is the part of an authorization that changes balances, so it is
+   * the only part that must run in transaction order.
+   *
+   * @param t The transaction to apply.
+   * @param validNumber Whether the card number passed the Luhn check.
+   * @param card The account of the card number, or null if there is none.
+   * @return False if the transaction was denied, true otherwise.
+   */
+  boolean applyTransaction(Transaction t, boolean validNumber, CreditCard card) {
+    boolean approved = authorize(t, validNumber, card);
+    if (journal != null) {
+      try {
+        journal.recordTransaction(t, approved);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return approved;
+  }
+
+  private boolean authorize(Transaction t, boolean validNumber, CreditCard card) {
+    Metrics.count(Metrics.Counter.TRANSACTIONS);
+    if (validNumber) {
+      if (card == null) {
+        return approveUnknownAccount();
+      }
+      boolean approved = card.processTransaction(t);
+      TransactionIndex ti = transactionIndex;
+      if (approved && ti != null) {
+        ti.add(t);
+      }
+      return approved;
+    }
+    Metrics.count(Metrics.Counter.INVALID_CARD_NUMBER);
+    t.denyTransaction("Invalid account number " + t.getCardNumber());
+    return false;
+  }
 
-      // Formatter to parse the date object
-      DateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+  /**
+   * Looks up the account of a card number.
+   *
+   * @param cardNumber The card number.
+   * @return The account, or null if there is none.
+   */
+  CreditCard findAccount(String cardNumber) {
+    return ledger != null ? ledger.get(cardNumber) : index.get(cardNumber);
+  }
+
+  private CreditCard findAccount(long cardNumber, int digits) {
+    return ledger != null ? ledger.get(cardNumber, digits) : index.get(cardNumber, digits);
+  }
+
+  /**
+   * Applies a single record of a columnar batch to the corresponding credit card, timing it as an
+   * authorization.
+   *
+   * @param batch The batch holding the record.
+   * @param i Index of the record.
+   * @return False if the transaction was denied, true otherwise.
+   */
+  private boolean applyTransaction(TransactionBatch batch, int i) {
+    long start = Metrics.start();
+    boolean approved = authorize(batch, i);
+    if (journal != null) {
+      try {
+        journal.recordTransaction(batch, i, approved);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    Metrics.stop(Metrics.Phase.AUTHORIZE, start, 1);
+    return approved;
+  }
 
-      while (scanner.hasNext()) {
-        String transactionNumber = scanner.next();
-        String cardNumber = scanner.next();
-        Date date = dateFormat.parse(scanner.next());
-        String vendor = scanner.next();
-        double purchaseAmount = scanner.nextDouble();
-        transactions.add(new Transaction(
-            transactionNumber, cardNumber, date, vendor, purchaseAmount));
+  private boolean authorize(TransactionBatch batch, int i) {
+    Metrics.count(Metrics.Counter.TRANSACTIONS);
+    if (batch.isNumericCard(i)) {
+      if (validateCardNumber(batch.cardNumberValue(i))) {
+        // Get the card object corresponding to the card number
+        CreditCard c = findAccount(batch.cardNumberValue(i), batch.cardNumberDigits(i));
+        return authorize(c, batch, i);
       }
-      scanner.close();
+    } else if (validateCardNumber(batch.cardNumber(i))) {
+      return authorize(findAccount(batch.cardNumber(i)), batch, i);
+    }
+    Metrics.count(Metrics.Counter.INVALID_CARD_NUMBER);
+    batch.deny(i, "Invalid account number " + batch.cardNumber(i));
+    return false;
+  }
+
+  private boolean authorize(CreditCard c, TransactionBatch batch, int i) {
+    if (c == null) {
+      return approveUnknownAccount();
+    }
+    boolean approved = c.processTransaction(batch, i);
+    TransactionIndex ti = transactionIndex;
+    if (approved && ti != null) {
+      ti.add(batch, i);
+    }
+    return approved;
+  }
+
+  /**
+   * A transaction on a valid card number with no account is let through, as it always was; it is
+   * only counted.
+   */
+  private static boolean approveUnknownAccount() {
+    Metrics.count(Metrics.Counter.UNKNOWN_ACCOUNT);
+    return true;
+  }
+
+  /**
+   * Read transactions from a file.
+   *
+   * @param transactionsFilename Name of transactions data file
+   * @return A list of transactions from the file.
+   */
+  private ArrayList<Transaction>
+  readTransactionsFromFile(String transactionsFilename) {
+    ArrayList<Transaction> transactions = new ArrayList<>();
+    try (TransactionReader reader = new TransactionReader(transactionsFilename)) {
+      reader.forEachRemaining(transactions::add);
     } catch (FileNotFoundException e) {
       System.err.println("Could not read from transaction file");
-    } catch (InputMismatchException e) {
-      System.err.println("Purchase amount is not a double type");
-      System.err.println("Skipping the rest of the file");
-    } catch (ParseException e) {
-      System.err.println("Bad date format: " + e.getMessage());
-      System.err.println("Skipping the rest of the file");
     }
     return transactions;
   }
@@ -192,37 +896,139 @@ public class AccountManager {
   /**
    * This method traverses the list of credit cards, produces for each their end-of-month statement
    * by calling their `closeMonth()` method, and records each report to the file named `filename`.
-   * Statements are separated by a long string of asterisks.
+   * Statements are separated by a long string of asterisks, and come in order of card number, so
+   * the same accounts always give the same file.
    *
    * @param filename Name of the file on which to write the statements.
    */
   public void generateStatements(String filename) {
-    try {
-      PrintWriter statements = new PrintWriter(new File(filename));
-      statements.write("******************************************************\n");
-      for (String cardNum : accounts.keySet()) {
-        CreditCard card = accounts.get(cardNum);
-        String statement = card.closeMonth(); // closeMonth generates a statement
-        statements.write(statement);
-        statements.write("******************************************************\n");
-      }
-      statements.flush();
-      statements.close();
+    generateStatements(filename, 1);
+  }
+
+  /**
+   * Produces the same statements file as {@link #generateStatements(String)}, rendering the
+   * statements on {@code parallelism} threads. The cards are sorted by card number and cut into
+   * slices; each slice is rendered into its own buffer, and the buffers are written out in slice
+   * order, so the file is byte for byte the same whatever the number of threads.
+   *
+   * @param filename Name of the file on which to write the statements.
+   * @param parallelism The number of threads rendering statements.
+   */
+  public void generateStatements(String filename, int parallelism) {
+    ArrayList<CreditCard> cards = new ArrayList<>(accounts.values());
+    cards.sort(Comparator.comparing(CreditCard::getCardNumber));
+
+    if (parallelism <= 1) {
+      try (StatementWriter statements = new StatementWriter(filename)) {
+        statements.append(STATEMENT_SEPARATOR);
+        writeStatements(statements, cards, 0, cards.size());
+      } catch (IOException e) {
+        System.err.println("There was a problem opening the statements file");
+      }
+      return;
+    }
+
+    // A few slices per thread keep the threads busy when some statements are longer than others,
+    // and slices of at most STATEMENT_SLICE_CARDS cards keep each rendered slice small
+    int bounded = (cards.size() + STATEMENT_SLICE_CARDS - 1) / STATEMENT_SLICE_CARDS;
+    int slices = Math.max(1, Math.min(cards.size(), Math.max(parallelism * 4, bounded)));
+    ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+    try (FileOutputStream statements = new FileOutputStream(filename)) {
+      // Only a window of slices is rendered ahead of the one being written, so the statements
+      // held in memory are proportional to the number of threads rather than to the file
+      ArrayDeque<Future<ByteArrayOutputStream>> rendered = new ArrayDeque<>();
+      for (int k = 0; k < slices; k++) {
+        if (rendered.size() == parallelism * 2) {
+          rendered.poll().get().writeTo(statements);
+        }
+        int from = (int) ((long) cards.size() * k / slices);
+        int to = (int) ((long) cards.size() * (k + 1) / slices);
+        rendered.add(pool.submit(() -> {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          try (StatementWriter out = new StatementWriter(Channels.newChannel(bytes),
+              ByteBuffer.allocate(STATEMENT_BUFFER_SIZE))) {
+            if (from == 0) {
+              out.append(STATEMENT_SEPARATOR);
+            }
+            writeStatements(out, cards, from, to);
+          }
+          return bytes;
+        }));
+      }
+      while (!rendered.isEmpty()) {
+        rendered.poll().get().writeTo(statements);
+      }
     } catch (IOException e) {
       System.err.println("There was a problem opening the statements file");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      System.err.println("Interrupted while writing the statements file");
+    } catch (ExecutionException e) {
+      System.err.println("There was a problem writing the statements file");
+    } finally {
+      pool.shutdown();
     }
   }
 
+  /**
+   * Closes the month of a range of cards, writing each statement followed by a separator.
+   */
+  private void writeStatements(StatementWriter out, List<CreditCard> cards, int from,
+      int to) throws IOException {
+    for (int i = from; i < to; i++) {
+      long start = Metrics.start();
+      cards.get(i).closeMonth(out); // closeMonth generates a statement
+      if (journal != null) {
+        try {
+          journal.recordCloseMonth(cards.get(i).getCardNumber());
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      out.append(STATEMENT_SEPARATOR);
+      Metrics.stop(Metrics.Phase.STATEMENTS, start, 1);
+      Metrics.count(Metrics.Counter.STATEMENTS);
+    }
+  }
+
+  /**
+   * Writes a report of denied transactions, each with the reason it was denied. The whole report
+   * goes through one buffer, so a long list costs a few large writes rather than a write per line.
+   *
+   * @param out Where to write the report.
+   * @param denied The denied transactions.
+   * @throws IOException If the writer fails.
+   */
+  public static void writeDenials(StatementWriter out, List<Transaction> denied)
+      throws IOException {
+    out.append("The following transactions were denied: \n");
+    for (Transaction t : denied) {
+      out.append("-----------------------------------------------------\n");
+      t.writeDescription(out).append('\n');
+      out.append("Reason: ").append(t.getDenialReason()).append('\n');
+    }
+    out.append("-----------------------------------------------------\n");
+  }
+
   /**
    * Implement the program described in PA3
    *
    * @param args The three command line arguments: The filename that contains the account
    * information The filename that contains the transactions The filename where the account
-   * statements will be written
+   * statements will be written. They may be followed by {@code --verbose}, which describes each
+   * account as it is loaded, {@code --denials=<filename>}, which writes the denied transactions
+   * to that file instead of the console, {@code --journal=<filename>}, which appends every
+   * authorization and closed month to a {@link Journal} and, if the journal already holds a run
+   * that was cut short before its statements, replays it and carries on after its last
+   * transaction, {@code --save-snapshot=<filename>},
+   * which saves the accounts as loaded to an {@link AccountSnapshot}, {@code
+   * --velocity=<rules>}, which sets {@link VelocityLimits} on every card, and {@code --ledger} or
+   * {@code --ledger=<filename>}, which keeps the accounts in an {@link AccountLedger} in direct
+   * memory or in that file and cannot be combined with {@code --velocity}, as the cards of a ledger
+   * have no velocity rules. The account information may itself be a snapshot, in which case it is
+   * loaded as one.
    */
   public static void main(String[] args) {
-    // YOU DO NOT NEED TO CHANGE THIS METHOD.
-
     if (args.length < 3) {
       System.err.println("Invalid number of arguments");
       System.exit(1);
@@ -231,11 +1037,83 @@ public class AccountManager {
     String creditCardsFilename = args[0];
     String transactionsFilename = args[1];
     String statementsFilename = args[2];
+    boolean verbose = false;
+    String denialsFilename = null;
+    String journalFilename = null;
+    String snapshotFilename = null;
+    VelocityLimits velocityLimits = null;
+    boolean useLedger = false;
+    String ledgerFilename = null;
+    for (int i = 3; i < args.length; i++) {
+      if (args[i].equals("--verbose")) {
+        verbose = true;
+      } else if (args[i].startsWith("--denials=")) {
+        denialsFilename = args[i].substring("--denials=".length());
+      } else if (args[i].startsWith("--journal=")) {
+        journalFilename = args[i].substring("--journal=".length());
+      } else if (args[i].startsWith("--save-snapshot=")) {
+        snapshotFilename = args[i].substring("--save-snapshot=".length());
+      } else if (args[i].equals("--ledger")) {
+        useLedger = true;
+      } else if (args[i].startsWith("--ledger=")) {
+        useLedger = true;
+        ledgerFilename = args[i].substring("--ledger=".length());
+      } else if (args[i].startsWith("--velocity=")) {
+        try {
+          velocityLimits = VelocityLimits.parse(args[i].substring("--velocity=".length()));
+        } catch (IllegalArgumentException e) {
+          System.err.println(e.getMessage());
+          System.exit(1);
+        }
+      } else {
+        System.err.println("Unknown option " + args[i]);
+        System.exit(1);
+      }
+    }
+    if (useLedger && velocityLimits != null) {
+      System.err.println("--ledger cannot be combined with --velocity");
+      System.exit(1);
+    }
+
+    // Metrics are printed as a summary at the end; -Dmetrics.reporter=log, file:<name> or jmx
+    // also hands them to a reporter
+    Metrics.setEnabled(true);
+    long start = System.nanoTime();
 
-    AccountManager accountManager = new AccountManager();
+    AccountLedger ledger = null;
+    if (useLedger) {
+      try {
+        ledger = ledgerFilename != null ? new AccountLedger(ledgerFilename) : new AccountLedger();
+      } catch (IOException e) {
+        System.err.println("Could not create the ledger file");
+        System.exit(1);
+      }
+    }
+    AccountManager accountManager =
+        ledger != null ? new AccountManager(ledger) : new AccountManager();
+    accountManager.setVelocityLimits(velocityLimits);
     System.out.println("Loading accounts...");
-    ArrayList<String> invalidAccounts =
-        accountManager.loadAccounts(creditCardsFilename);
+    AsyncLogger log = verbose ? new AsyncLogger(System.out) : null;
+    accountManager.setLog(log);
+    ArrayList<String> invalidAccounts = new ArrayList<>();
+    if (AccountSnapshot.isSnapshot(creditCardsFilename)) {
+      if (!accountManager.loadSnapshot(creditCardsFilename)) {
+        System.exit(1);
+      }
+    } else {
+      invalidAccounts = accountManager.loadAccounts(creditCardsFilename);
+    }
+    if (snapshotFilename != null) {
+      accountManager.saveSnapshot(snapshotFilename);
+    }
+    if (log != null) {
+      try {
+        log.close();
+      } catch (IOException e) {
+        System.err.println("There was a problem writing the log");
+      }
+      accountManager.setLog(null);
+    }
 
     if (invalidAccounts.size() > 0) {
       System.out.println("The following " + invalidAccounts.size() +
@@ -245,20 +1123,81 @@ public class AccountManager {
       }
     }
 
-    ArrayList<Transaction> denied =
-        accountManager.processTransactionsFromFile(transactionsFilename);
+    Journal journal = null;
+    Journal.ReplaySummary replayed = null;
+    if (journalFilename != null) {
+      try {
+        if (Files.exists(Paths.get(journalFilename))
+            && Files.size(Paths.get(journalFilename)) > 0) {
+          replayed = Journal.replay(journalFilename, accountManager);
+          if (replayed.getClosedMonths() > 0) {
+            System.err.println("The journal " + journalFilename
+                + " holds a run that already wrote its statements");
+            System.exit(1);
+          }
+          System.out.println("Resuming after transaction " + replayed.getLastTransactionNumber()
+              + " of the journal " + journalFilename);
+        }
+        journal = Journal.open(journalFilename);
+        accountManager.setJournal(journal);
+      } catch (IOException e) {
+        System.err.println("Could not open the journal file");
+        System.exit(1);
+      }
+    }
+
+    ArrayList<Transaction> denied = new ArrayList<>();
+    if (replayed == null) {
+      accountManager.processTransactionsFromFile(transactionsFilename, denied::add);
+    } else if (!accountManager.resumeTransactionsFromFile(transactionsFilename, denied::add,
+        replayed)) {
+      System.exit(1);
+    }
 
-    if (denied.size() > 0) {
-      System.out.println("The following transactions were denied: ");
-      for (Transaction t : denied) {
-        System.out.println("-----------------------------------------------------");
-        System.out.println(t.toString());
-        System.out.println("Reason: " + t.getDenialReason());
+    if (denied.size() > 0 && denialsFilename != null) {
+      try (StatementWriter out = new StatementWriter(denialsFilename)) {
+        writeDenials(out, denied);
+        System.out.println(denied.size() + " transactions were denied. See " + denialsFilename);
+      } catch (IOException e) {
+        System.err.println("There was a problem writing the denials file");
+      }
+    } else if (denied.size() > 0) {
+      // Not closed, as that would close System.out
+      StatementWriter out =
+          new StatementWriter(Channels.newChannel(System.out), STATEMENT_BUFFER_SIZE);
+      try {
+        writeDenials(out, denied);
+        out.flush();
+      } catch (IOException e) {
+        System.err.println("There was a problem writing the denied transactions");
       }
-      System.out.println("-----------------------------------------------------");
     }
 
     System.out.println("Writing statements to " + statementsFilename + " ...");
     accountManager.generateStatements(statementsFilename);
+    if (journal != null) {
+      try {
+        journal.close();
+      } catch (IOException e) {
+        System.err.println("There was a problem writing the journal file");
+      }
+    }
+    if (ledger != null) {
+      try {
+        ledger.close();
+      } catch (IOException e) {
+        System.err.println("There was a problem closing the ledger file");
+      }
+    }
+
+    Metrics.printSummary(System.out, System.nanoTime() - start);
+    String reporter = System.getProperty("metrics.reporter");
+    if (reporter != null) {
+      try {
+        Metrics.report(Metrics.reporter(reporter));
+      } catch (IllegalArgumentException e) {
+        System.err.println(e.getMessage());
+      }
+    }
   }
 }
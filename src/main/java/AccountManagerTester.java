@@ -1,6 +1,23 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
 
 public class AccountManagerTester {
 
@@ -8,6 +25,18 @@ public class AccountManagerTester {
   public static void main(String[] args) {
     testAccountManager();
     test2AccountManager();
+    testParallelProcessing();
+    testMappedParser();
+    testMetrics();
+    testLogging();
+    testCheckpoint();
+    testJournal();
+    testSnapshot();
+    testPipeline();
+    testServer();
+    testMonthSummary();
+    testTransactionIndex();
+    testLedger();
   }
 
   private static void testAccountManager() {
@@ -170,4 +199,700 @@ public class AccountManagerTester {
 //      System.out.println("EXCEPTION! Something went wrong :(");
 //    }
   }
+
+  private static void testMappedParser() {
+
+    try {
+      System.out.print("TEST Mapped Parser Chunks:");
+      // Several megabytes of CRLF records, so that the file is cut into chunks
+      List<String> lines = Files.readAllLines(new File("transactions.csv").toPath());
+      ArrayList<String> records = new ArrayList<>();
+      long dataSize = 0;
+      while (dataSize < 4 << 20) {
+        for (String line : lines.subList(1, lines.size())) {
+          records.add(line + "\r\n");
+          dataSize += line.length() + 2;
+        }
+      }
+
+      // A malformed record of the same length across each place the parser aims to cut
+      int chunks = 4;
+      long offset = 0;
+      int split = 1;
+      for (int i = 0; i < records.size() && split < chunks; i++) {
+        long end = offset + records.get(i).length();
+        if (end > dataSize * split / chunks) {
+          char[] garbage = new char[records.get(i).length() - 2];
+          Arrays.fill(garbage, 'x');
+          records.set(i, new String(garbage) + "\r\n");
+          split++;
+        }
+        offset = end;
+      }
+      File file = File.createTempFile("transactions", ".csv");
+      try (PrintWriter out = new PrintWriter(file)) {
+        out.print(lines.get(0) + "\r\n");
+        for (String record : records) {
+          out.print(record);
+        }
+      }
+
+      ArrayList<Transaction> sequential = new ArrayList<>();
+      StringBuilder expected = new StringBuilder();
+      CsvRecordReader csv = new CsvRecordReader(file.getPath());
+      // Skip the header
+      csv.nextRecord();
+      try (TransactionReader reader = new TransactionReader(csv,
+          e -> expected.append("Skipping transaction at ").append(e.getMessage()).append('\n'))) {
+        reader.forEachRemaining(sequential::add);
+      }
+
+      // The parser reports malformed records on System.err, with their line in the whole file
+      PrintStream err = System.err;
+      ByteArrayOutputStream reported = new ByteArrayOutputStream();
+      ArrayList<Transaction> chunked;
+      ArrayList<Transaction> single;
+      try {
+        System.setErr(new PrintStream(reported, true));
+        chunked = MappedTransactionParser.parse(file.getPath(), chunks);
+        single = MappedTransactionParser.parse(file.getPath(), 0);
+      } finally {
+        System.setErr(err);
+      }
+      file.delete();
+
+      boolean same = sequential.size() == records.size() - (chunks - 1)
+          && chunked.size() == sequential.size() && single.size() == sequential.size()
+          && reported.toString().replace("\r", "").equals(expected.toString() + expected);
+      for (int i = 0; same && i < sequential.size(); i++) {
+        Transaction s = sequential.get(i);
+        Transaction c = chunked.get(i);
+        same = s.getTransactionNumber().equals(c.getTransactionNumber())
+            && s.getVendor().equals(c.getVendor())
+            && s.getPurchaseCents() == c.getPurchaseCents();
+      }
+      if (same) {
+        System.out.println(" PASSED!");
+      } else {
+        System.out.println(" FAILED - chunked parse differs from a sequential read");
+      }
+    } catch (Exception e) {
+      System.out.println(" EXCEPTION! Something went wrong :(");
+    }
+  }
+
+  private static void testParallelProcessing() {
+
+    // Run the same files through the sequential and the sharded engines
+    AccountManager sequential = new AccountManager();
+    sequential.loadAccounts("cards.csv");
+    ArrayList<Transaction> seqDenied =
+        sequential.processTransactionsFromFile("transactions.csv");
+
+    AccountManager parallel = new AccountManager();
+    parallel.loadAccounts("cards.csv");
+    ArrayList<Transaction> parDenied =
+        parallel.processTransactionsFromFile("transactions.csv", 4);
+
+    try {
+      System.out.print("TEST Parallel Denials:");
+      boolean same = seqDenied.size() == parDenied.size();
+      for (int i = 0; same && i < seqDenied.size(); i++) {
+        Transaction s = seqDenied.get(i);
+        Transaction p = parDenied.get(i);
+        same = s.getTransactionNumber().equals(p.getTransactionNumber())
+            && s.getDenialReason().equals(p.getDenialReason());
+      }
+      if (same) {
+        System.out.println(" PASSED!");
+      } else {
+        System.out.println(" FAILED - parallel denials differ from sequential denials");
+      }
+    } catch (Exception e) {
+      System.out.println(" EXCEPTION! Something went wrong :(");
+    }
+
+    try {
+      System.out.print("TEST Parallel Balances:");
+      boolean same = sequential.accounts.size() == parallel.accounts.size();
+      for (String cardNum : sequential.accounts.keySet()) {
+        CreditCard s = sequential.accounts.get(cardNum);
+        CreditCard p = parallel.accounts.get(cardNum);
+        if (p == null || s.getCurrentBalance() != p.getCurrentBalance()
+            || s.getCurrentTransactions().size() != p.getCurrentTransactions().size()) {
+          same = false;
+        }
+      }
+      if (same) {
+        System.out.println(" PASSED!");
+      } else {
+        System.out.println(" FAILED - parallel balances differ from sequential balances");
+      }
+    } catch (Exception e) {
+      System.out.println(" EXCEPTION! Something went wrong :(");
+    }
+  
+    try {
+      System.out.print("TEST Parallel Statements:");
+      File seqFile = File.createTempFile("statements", ".txt");
+      File parFile = File.createTempFile("statements", ".txt");
+      sequential.generateStatements(seqFile.getPath());
+      parallel.generateStatements(parFile.getPath(), 4);
+      byte[] seqBytes = Files.readAllBytes(seqFile.toPath());
+      byte[] parBytes = Files.readAllBytes(parFile.toPath());
+      seqFile.delete();
+      parFile.delete();
+      if (seqBytes.length > 0 && Arrays.equals(seqBytes, parBytes)) {
+        System.out.println(" PASSED!");
+      } else {
+        System.out.println(" FAILED - parallel statements differ from sequential statements");
+      }
+    } catch (Exception e) {
+      System.out.println(" EXCEPTION! Something went wrong :(");
+    }
+  }
+
+  private static void testMetrics() {
+
+    Metrics.reset();
+    Metrics.setEnabled(true);
+    AccountManager manager = new AccountManager();
+    manager.loadAccounts("cards.csv");
+    ArrayList<Transaction> denied = manager.processTransactionsFromFile("transactions.csv");
+    Metrics.setEnabled(false);
+
+    try {
+      System.out.print("TEST Metrics:");
+      long deniedCount = Metrics.get(Metrics.Counter.INVALID_CARD_NUMBER)
+          + Metrics.get(Metrics.Counter.LIMIT_EXCEEDED)
+          + Metrics.get(Metrics.Counter.INCORRECT_ACCOUNT);
+      long approvedCount = Metrics.get(Metrics.Counter.APPROVED)
+          + Metrics.get(Metrics.Counter.UNKNOWN_ACCOUNT);
+      long transactions = Metrics.get(Metrics.Counter.TRANSACTIONS);
+      if (deniedCount == denied.size() && approvedCount + deniedCount == transactions
+          && Metrics.items(Metrics.Phase.AUTHORIZE) == transactions
+          && Metrics.items(Metrics.Phase.PARSE) == transactions
+          && Metrics.get(Metrics.Counter.ACCOUNTS_LOADED) == manager.accounts.size()) {
+        System.out.println(" PASSED!");
+      } else {
+        System.out.println(" FAILED - metrics do not add up to the transactions processed");
+      }
+    } catch (Exception e) {
+      System.out.println(" EXCEPTION! Something went wrong :(");
+    }
+    Metrics.reset();
+  }
+
+  private static void testLogging() {
+
+    try {
+      System.out.print("TEST Verbose Log:");
+      File logFile = File.createTempFile("accounts", ".log");
+      AccountManager manager = new AccountManager();
+      AsyncLogger log = new AsyncLogger(logFile.getPath());
+      manager.setLog(log);
+      ArrayList<String> invalid = manager.loadAccounts("cards.csv");
+      log.close();
+      long described = Files.readAllLines(logFile.toPath()).stream()
+          .filter(line -> line.startsWith("Card number: ")).count();
+      logFile.delete();
+      if (described == manager.accounts.size() + invalid.size()) {
+        System.out.println(" PASSED!");
+      } else {
+        System.out.println(" FAILED - log does not describe every account read");
+      }
+    } catch (Exception e) {
+      System.out.println(" EXCEPTION! Something went wrong :(");
+    }
+  }
+
+  private static void testCheckpoint() {
+
+    try {
+      System.out.print("TEST Checkpoint Resume:");
+      File cards = File.createTempFile("cards", ".csv");
+      File transactions = File.createTempFile("transactions", ".csv");
+      File checkpoint = new File(transactions.getPath() + ".checkpoint");
+      DataGenerator generator = new DataGenerator();
+      generator.set("--cards=" + cards.getPath());
+      generator.set("--transactionsFile=" + transactions.getPath());
+      generator.set("--accounts=200");
+      generator.set("--transactions=20000");
+      generator.write();
+
+      // A run without checkpoints
+      AccountManager whole = new AccountManager();
+      whole.loadAccounts(cards.getPath());
+      whole.processTransactionsFromFile(transactions.getPath());
+
+      // A run that dies part way through the file
+      AccountManager crashed = new AccountManager();
+      crashed.loadAccounts(cards.getPath());
+      try {
+        crashed.processTransactionsFromFile(transactions.getPath(), t -> {
+          if (Long.parseLong(t.getTransactionNumber()) > 10000) {
+            throw new IllegalStateException("crash");
+          }
+        }, checkpoint.getPath(), 1000);
+      } catch (IllegalStateException e) {
+        // expected
+      }
+      boolean saved = checkpoint.exists();
+
+      // Resume from the checkpoint
+      AccountManager resumed = new AccountManager();
+      resumed.loadAccounts(cards.getPath());
+      resumed.processTransactionsFromFile(transactions.getPath(), t -> { },
+          checkpoint.getPath(), 1000);
+
+      File wholeFile = File.createTempFile("statements", ".txt");
+      File resumedFile = File.createTempFile("statements", ".txt");
+      whole.generateStatements(wholeFile.getPath());
+      resumed.generateStatements(resumedFile.getPath());
+      boolean same = Arrays.equals(Files.readAllBytes(wholeFile.toPath()),
+          Files.readAllBytes(resumedFile.toPath()));
+      for (File f : new File[] {cards, transactions, wholeFile, resumedFile}) {
+        f.delete();
+      }
+      if (saved && same && !checkpoint.exists()) {
+        System.out.println(" PASSED!");
+      } else {
+        System.out.println(" FAILED - resumed run differs from an uninterrupted run");
+      }
+    } catch (Exception e) {
+      System.out.println(" EXCEPTION! Something went wrong :(");
+    }
+  }
+
+  private static void testJournal() {
+
+    try {
+      System.out.print("TEST Journal Replay:");
+      File journalFile = File.createTempFile("journal", ".bin");
+      AccountManager original = new AccountManager();
+      original.loadAccounts("cards.csv");
+      Journal journal = Journal.open(journalFile.getPath());
+      original.setJournal(journal);
+      ArrayList<Transaction> denied = original.processTransactionsFromFile("transactions.csv");
+      journal.close();
+      original.setJournal(null);
+
+      AccountManager replayed = new AccountManager();
+      replayed.loadAccounts("cards.csv");
+      Journal.ReplaySummary summary = Journal.replay(journalFile.getPath(), replayed);
+
+      File originalFile = File.createTempFile("statements", ".txt");
+      File replayedFile = File.createTempFile("statements", ".txt");
+      original.generateStatements(originalFile.getPath());
+      replayed.generateStatements(replayedFile.getPath());
+      boolean same = Arrays.equals(Files.readAllBytes(originalFile.toPath()),
+          Files.readAllBytes(replayedFile.toPath()));
+
+      // Cut the last record short, as a crash while writing would
+      byte[] bytes = Files.readAllBytes(journalFile.toPath());
+      Files.write(journalFile.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+      Journal.ReplaySummary torn = Journal.replay(journalFile.getPath(), new AccountManager());
+
+      // A crash can leave any length in a torn frame; a huge one must not be trusted
+      byte[] garbage = Arrays.copyOf(bytes, bytes.length + 8);
+      Arrays.fill(garbage, bytes.length, bytes.length + 4, (byte) 0x7f);
+      Files.write(journalFile.toPath(), garbage);
+      Journal.ReplaySummary huge = Journal.replay(journalFile.getPath(), new AccountManager());
+
+      // Crash half way through the file, then restart with the same journal: the run carries on
+      // where it stopped and ends as if it had never stopped
+      Files.write(journalFile.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+      AccountManager restarted = new AccountManager();
+      restarted.loadAccounts("cards.csv");
+      Journal.ReplaySummary crashed = Journal.replay(journalFile.getPath(), restarted);
+      Journal again = Journal.open(journalFile.getPath());
+      restarted.setJournal(again);
+      ArrayList<Transaction> deniedAfter = new ArrayList<>();
+      boolean resumed =
+          restarted.resumeTransactionsFromFile("transactions.csv", deniedAfter::add, crashed);
+      again.close();
+      restarted.setJournal(null);
+      File restartedFile = File.createTempFile("statements", ".txt");
+      restarted.generateStatements(restartedFile.getPath());
+      boolean kept = resumed && Arrays.equals(Files.readAllBytes(originalFile.toPath()),
+          Files.readAllBytes(restartedFile.toPath()))
+          && crashed.getDenied() + deniedAfter.size() == denied.size();
+      Journal.ReplaySummary whole = Journal.replay(journalFile.getPath(), new AccountManager());
+
+      for (File f : new File[] {journalFile, originalFile, replayedFile, restartedFile}) {
+        f.delete();
+      }
+      if (same && summary.getDenied() == denied.size() && !summary.isTorn() && torn.isTorn()
+          && torn.getApproved() + torn.getDenied() == 999 && huge.isTorn()
+          && huge.getApproved() + huge.getDenied() == 1000 && kept && !whole.isTorn()
+          && whole.getApproved() == summary.getApproved()
+          && whole.getDenied() == summary.getDenied()) {
+        System.out.println(" PASSED!");
+      } else {
+        System.out.println(" FAILED - replayed journal does not rebuild the cards");
+      }
+    } catch (Exception e) {
+      System.out.println(" EXCEPTION! Something went wrong :(");
+    }
+  }
+
+  private static void testSnapshot() {
+
+    try {
+      System.out.print("TEST Account Snapshot:");
+      File snapshot = File.createTempFile("accounts", ".snapshot");
+      AccountManager original = new AccountManager();
+      original.loadAccounts("cards.csv");
+      boolean saved = original.saveSnapshot(snapshot.getPath());
+
+      AccountManager restored = new AccountManager();
+      boolean loaded = restored.loadSnapshot(snapshot.getPath());
+      snapshot.delete();
+
+      boolean same = saved && loaded && original.accounts.size() == restored.accounts.size();
+      Iterator<CreditCard> cards = restored.accounts.values().iterator();
+      for (CreditCard o : original.accounts.values()) {
+        CreditCard r = cards.next();
+        if (!o.getCardNumber().equals(r.getCardNumber())
+            || !o.getAccountHolder().equals(r.getAccountHolder())
+            || o.getCurrentBalanceCents() != r.getCurrentBalanceCents()) {
+          same = false;
+        }
+      }
+      if (same && !AccountSnapshot.isSnapshot("cards.csv")) {
+        System.out.println(" PASSED!");
+      } else {
+        System.out.println(" FAILED - snapshot does not hold the accounts loaded");
+      }
+    } catch (Exception e) {
+      System.out.println(" EXCEPTION! Something went wrong :(");
+    }
+  }
+
+  private static void testPipeline() {
+
+    try {
+      System.out.print("TEST Pipelined Authorization:");
+      AccountManager sequential = new AccountManager();
+      sequential.loadAccounts("cards.csv");
+      ArrayList<Transaction> seqDenied =
+          sequential.processTransactionsFromFile("transactions.csv");
+
+      // Push the file through in uneven batches, some of them longer than the pipeline's batches
+      AccountManager pipelined = new AccountManager();
+      pipelined.loadAccounts("cards.csv");
+      ArrayList<CompletableFuture<AuthorizationPipeline.Result>> results = new ArrayList<>();
+      try (AuthorizationPipeline pipeline = new AuthorizationPipeline(pipelined, 64, 2);
+          TransactionReader reader = new TransactionReader("transactions.csv")) {
+        ArrayList<Transaction> batch = new ArrayList<>();
+        while (reader.hasNext()) {
+          batch.add(reader.next());
+          if (batch.size() == 50 + 40 * (results.size() % 3)) {
+            results.add(pipeline.authorizeBatch(batch));
+            batch = new ArrayList<>();
+          }
+        }
+        results.add(pipeline.authorizeBatch(batch));
+      }
+      ArrayList<Transaction> pipeDenied = new ArrayList<>();
+      for (CompletableFuture<AuthorizationPipeline.Result> result : results) {
+        pipeDenied.addAll(result.get().getDenied());
+      }
+
+      boolean same = seqDenied.size() == pipeDenied.size();
+      for (int i = 0; same && i < seqDenied.size(); i++) {
+        same = seqDenied.get(i).getTransactionNumber()
+            .equals(pipeDenied.get(i).getTransactionNumber())
+            && seqDenied.get(i).getDenialReason().equals(pipeDenied.get(i).getDenialReason());
+      }
+      for (CreditCard s : sequential.accounts.values()) {
+        CreditCard p = pipelined.accounts.get(s.getCardNumber());
+        if (p == null || s.getCurrentBalanceCents() != p.getCurrentBalanceCents()) {
+          same = false;
+        }
+      }
+      if (same) {
+        System.out.println(" PASSED!");
+      } else {
+        System.out.println(" FAILED - pipelined outcome differs from sequential outcome");
+      }
+    } catch (Exception e) {
+      System.out.println(" EXCEPTION! Something went wrong :(");
+    }
+  }
+
+  private static void testServer() {
+
+    try {
+      System.out.print("TEST Authorization Server:");
+      AccountManager sequential = new AccountManager();
+      sequential.loadAccounts("cards.csv");
+      int seqDenied = sequential.processTransactionsFromFile("transactions.csv").size();
+
+      // Send the whole file down one connection, so the answers come in file order
+      AccountManager served = new AccountManager(true);
+      served.loadAccounts("cards.csv");
+      File journalFile = File.createTempFile("journal", ".bin");
+      Journal journal = Journal.open(journalFile.getPath());
+      served.setJournal(journal);
+      int denied = 0;
+      boolean answered = true;
+      try (AuthorizationServer server = AuthorizationServer.start(served, 0);
+          Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+          PrintWriter out = new PrintWriter(socket.getOutputStream());
+          BufferedReader in = new BufferedReader(
+              new InputStreamReader(socket.getInputStream()));
+          Scanner lines = new Scanner(new File("transactions.csv"))) {
+        lines.nextLine();
+        while (lines.hasNextLine()) {
+          String line = lines.nextLine();
+          if (line.isEmpty()) {
+            continue;
+          }
+          out.println(line);
+          out.flush();
+          String answer = in.readLine();
+          if (answer == null || answer.startsWith("ERROR,")) {
+            answered = false;
+          } else if (answer.startsWith("DENIED,")) {
+            denied++;
+          }
+        }
+        out.println("not a transaction");
+        out.flush();
+        answered = answered && in.readLine().startsWith("ERROR,");
+        char[] tooLong = new char[AuthorizationServer.MAX_LINE_LENGTH + 1];
+        Arrays.fill(tooLong, '9');
+        out.println(tooLong);
+        out.flush();
+        answered = answered && in.readLine().startsWith("ERROR,");
+      }
+      journal.close();
+      Journal.ReplaySummary journaled = Journal.replay(journalFile.getPath(),
+          new AccountManager());
+      journalFile.delete();
+
+      boolean same = answered && denied == seqDenied && journaled.getDenied() == seqDenied;
+      for (CreditCard s : sequential.accounts.values()) {
+        CreditCard c = served.accounts.get(s.getCardNumber());
+        if (c == null || s.getCurrentBalanceCents() != c.getCurrentBalanceCents()) {
+          same = false;
+        }
+      }
+
+      // Send the file three times over without reading, so far more than 16 KB of answers are
+      // due while lines are still waiting; the journal commits only when asked to, and every
+      // answer read must already be in it
+      AccountManager pipelined = new AccountManager(true);
+      pipelined.loadAccounts("cards.csv");
+      journal = Journal.open(journalFile.getPath(), 60000);
+      pipelined.setJournal(journal);
+      byte[] file = Files.readAllBytes(new File("transactions.csv").toPath());
+      int answers = 0;
+      int authorized = 0;
+      try (AuthorizationServer server = AuthorizationServer.start(pipelined, 0);
+          Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+          BufferedReader in = new BufferedReader(
+              new InputStreamReader(socket.getInputStream()))) {
+        CompletableFuture<Void> sent = CompletableFuture.runAsync(() -> {
+          try {
+            for (int k = 0; k < 3; k++) {
+              socket.getOutputStream().write(file);
+            }
+            socket.shutdownOutput();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+        String answer;
+        while ((answer = in.readLine()) != null) {
+          answers++;
+          if (!answer.startsWith("ERROR,")) {
+            authorized++;
+          }
+          if (answers % 500 == 0) {
+            Journal.ReplaySummary durable = Journal.replay(journalFile.getPath(),
+                new AccountManager());
+            if (durable.getApproved() + durable.getDenied() < authorized) {
+              same = false;
+            }
+          }
+        }
+        sent.join();
+      }
+      journal.close();
+      journalFile.delete();
+      long lines = new String(file).lines().count();
+      same = same && answers == lines * 3 && authorized == (lines - 1) * 3;
+      if (same) {
+        System.out.println(" PASSED!");
+      } else {
+        System.out.println(" FAILED - served outcome differs from sequential outcome");
+      }
+    } catch (Exception e) {
+      System.out.println(" EXCEPTION! Something went wrong :(");
+    }
+  }
+
+  private static void testMonthSummary() {
+
+    try {
+      System.out.print("TEST Month Summary:");
+      AccountManager manager = new AccountManager();
+      manager.loadAccounts("cards.csv");
+      manager.processTransactionsFromFile("transactions.csv");
+
+      // The running totals must agree with a walk over each card's transactions
+      boolean same = manager.getMonthSummary("0") == null;
+      for (CreditCard card : manager.accounts.values()) {
+        MonthSummary summary = manager.getMonthSummary(card.getCardNumber());
+        ArrayList<Transaction> transactions = card.getCurrentTransactions();
+        long total = 0;
+        long largest = 0;
+        long firstVendor = 0;
+        for (Transaction t : transactions) {
+          total += t.getPurchaseCents();
+          largest = Math.max(largest, t.getPurchaseCents());
+          if (t.getVendor().equals(transactions.get(0).getVendor())) {
+            firstVendor += t.getPurchaseCents();
+          }
+        }
+        if (summary.getPurchases() != transactions.size() || summary.getTotalCents() != total
+            || summary.getLargestCents() != largest
+            || (total > 0 && summary.getVendorCents(transactions.get(0).getVendor()) != firstVendor)
+            || summary.getTotalCents() != card.getMonthlyTotalCents()) {
+          same = false;
+        }
+      }
+      if (same) {
+        System.out.println(" PASSED!");
+      } else {
+        System.out.println(" FAILED - month summaries differ from the transactions");
+      }
+    } catch (Exception e) {
+      System.out.println(" EXCEPTION! Something went wrong :(");
+    }
+  }
+
+  private static void testTransactionIndex() {
+
+    try {
+      System.out.print("TEST Transaction Index:");
+      AccountManager manager = new AccountManager();
+      manager.loadAccounts("cards.csv");
+      TransactionIndex index = new TransactionIndex();
+      manager.setTransactionIndex(index);
+      manager.processTransactionsFromFile("transactions.csv");
+
+      // Scan the approved transactions of every card for the same answers
+      ArrayList<Transaction> approved = new ArrayList<>();
+      for (CreditCard card : manager.accounts.values()) {
+        approved.addAll(card.getCurrentTransactions());
+      }
+      HashMap<String, Long> vendorCents = new HashMap<>();
+      int minDay = Integer.MAX_VALUE;
+      int maxDay = Integer.MIN_VALUE;
+      for (Transaction t : approved) {
+        vendorCents.merge(t.getVendor(), t.getPurchaseCents(), Long::sum);
+        minDay = Math.min(minDay, t.getEpochDay());
+        maxDay = Math.max(maxDay, t.getEpochDay());
+      }
+      List<TransactionIndex.VendorTotal> top = index.topVendors(3);
+      long best = Collections.max(vendorCents.values());
+
+      // A range that leaves out the first and last days
+      int from = minDay + 1;
+      int to = maxDay - 1;
+      String vendor = top.get(0).getVendor();
+      long rangeCents = 0;
+      int rangeCount = 0;
+      int vendorCount = 0;
+      for (Transaction t : approved) {
+        if (t.getEpochDay() >= from && t.getEpochDay() <= to) {
+          rangeCount++;
+          if (t.getVendor().equals(vendor)) {
+            rangeCents += t.getPurchaseCents();
+            vendorCount++;
+          }
+        }
+      }
+
+      if (index.size() == approved.size() && top.size() == 3
+          && top.get(0).getCents() == best && top.get(0).getCents() >= top.get(1).getCents()
+          && index.vendorCents(vendor) == vendorCents.get(vendor)
+          && index.vendorCents(vendor, from, to) == rangeCents
+          && index.vendorPurchases(vendor, from, to) == vendorCount
+          && index.vendorTransactions(vendor, from, to).size() == vendorCount
+          && index.transactionsBetween(from, to).size() == rangeCount
+          && index.topVendors(1, from, to).get(0).getCents() >= rangeCents
+          && index.vendorCents("No Such Vendor", minDay, maxDay) == 0) {
+        System.out.println(" PASSED!");
+      } else {
+        System.out.println(" FAILED - index queries differ from a scan of the transactions");
+      }
+    } catch (Exception e) {
+      System.out.println(" EXCEPTION! Something went wrong :(");
+    }
+  }
+
+  private static void testLedger() {
+
+    try {
+      System.out.print("TEST Account Ledger:");
+      AccountManager heap = new AccountManager();
+      heap.loadAccounts("cards.csv");
+      ArrayList<Transaction> heapDenied = heap.processTransactionsFromFile("transactions.csv");
+
+      // A snapshot loaded into a ledger in a file, then run on several threads
+      File snapshot = File.createTempFile("accounts", ".snapshot");
+      File ledgerFile = File.createTempFile("accounts", ".ledger");
+      AccountManager loaded = new AccountManager();
+      loaded.loadAccounts("cards.csv");
+      loaded.saveSnapshot(snapshot.getPath());
+      boolean same;
+      try (AccountLedger ledger = new AccountLedger(ledgerFile.getPath())) {
+        AccountManager offHeap = new AccountManager(ledger);
+        same = offHeap.loadSnapshot(snapshot.getPath())
+            && ledger.size() == heap.accounts.size()
+            && offHeap.processTransactionsFromFile("transactions.csv", 4).size()
+                == heapDenied.size();
+
+        for (CreditCard h : heap.accounts.values()) {
+          CreditCard l = offHeap.accounts.get(h.getCardNumber());
+          if (l == null || !h.getAccountHolder().equals(l.getAccountHolder())
+              || h.getCurrentBalanceCents() != l.getCurrentBalanceCents()
+              || h.getMonthlyTotalCents() != l.getMonthlyTotalCents()
+              || h.getMonthSummary().getLargestCents() != l.getMonthSummary().getLargestCents()
+              || h.getCurrentTransactions().size() != l.getCurrentTransactions().size()) {
+            same = false;
+          }
+        }
+
+        // The statements come out the same, and close the months of the ledger
+        File heapStatements = File.createTempFile("statements", ".txt");
+        File ledgerStatements = File.createTempFile("statements", ".txt");
+        heap.generateStatements(heapStatements.getPath());
+        offHeap.generateStatements(ledgerStatements.getPath());
+        same = same && Arrays.equals(Files.readAllBytes(heapStatements.toPath()),
+            Files.readAllBytes(ledgerStatements.toPath()));
+        for (CreditCard l : offHeap.accounts.values()) {
+          if (l.getMonthlyTotalCents() != 0 || !l.getCurrentTransactions().isEmpty()) {
+            same = false;
+          }
+        }
+        heapStatements.delete();
+        ledgerStatements.delete();
+      }
+      snapshot.delete();
+      ledgerFile.delete();
+
+      if (same) {
+        System.out.println(" PASSED!");
+      } else {
+        System.out.println(" FAILED - the ledger does not match the accounts on the heap");
+      }
+    } catch (Exception e) {
+      System.out.println(" EXCEPTION! Something went wrong :(");
+    }
+  }
 }
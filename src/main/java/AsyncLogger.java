@@ -0,0 +1,160 @@
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes diagnostic lines on a background thread, so the code producing them never waits on a
+ * terminal or a disk. Lines go into a bounded ring buffer; the writer thread takes them out in
+ * batches and writes each batch through one {@link StatementWriter}, flushing whenever the buffer
+ * runs empty. A producer only blocks when it gets a full buffer ahead of the writer.
+ */
+public class AsyncLogger implements Closeable {
+
+  private static final int DEFAULT_CAPACITY = 8192;
+
+  // Largest number of lines taken out of the ring buffer at once
+  private static final int MAX_BATCH = 1024;
+
+  // How long a producer waits on a full ring buffer before checking the logger is still open
+  private static final long OFFER_MILLIS = 10;
+
+  // Marks the end of the lines; compared by identity, so no logged line can be mistaken for it
+  private static final String END = new String("");
+
+  private final ArrayBlockingQueue<String> lines;
+  private final StatementWriter out;
+  private final boolean ownsOutput;
+  private final Thread writer;
+
+  private volatile IOException failure;
+  private volatile boolean closed;
+
+  /**
+   * Logs to a stream, such as {@code System.out}. The stream is flushed but not closed by {@link
+   * #close()}.
+   *
+   * @param stream Where the lines go.
+   */
+  public AsyncLogger(OutputStream stream) {
+    this(new StatementWriter(Channels.newChannel(stream), 64 * 1024), false, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Logs to a file, replacing its contents. The file is closed by {@link #close()}.
+   *
+   * @param filename Name of the file to write.
+   * @throws IOException If the file cannot be opened.
+   */
+  public AsyncLogger(String filename) throws IOException {
+    this(new StatementWriter(new FileOutputStream(filename).getChannel(), 1 << 20), true,
+        DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Logs through a statement writer.
+   *
+   * @param out Where the lines go.
+   * @param ownsOutput Whether {@link #close()} closes {@code out}, or only flushes it.
+   * @param capacity The number of lines the ring buffer holds.
+   */
+  public AsyncLogger(StatementWriter out, boolean ownsOutput, int capacity) {
+    this.out = out;
+    this.ownsOutput = ownsOutput;
+    lines = new ArrayBlockingQueue<>(Math.max(capacity, 1));
+    writer = new Thread(this::drain, "async-logger");
+    // A logger that is never closed must not keep the program running
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Queues a line to be written. The line may hold several lines separated by {@code \n}; a
+   * newline is added after it. A line logged while another thread closes the logger may be
+   * dropped.
+   *
+   * @param line The text to write.
+   * @throws IllegalStateException If the logger is closed, including while waiting on a full
+   *     buffer.
+   */
+  public void log(String line) {
+    try {
+      // The writer stops taking lines at the end marker, so never wait on it for good
+      while (!closed) {
+        if (lines.offer(line, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      // The line is dropped, and the caller gets to see the interrupt
+      Thread.currentThread().interrupt();
+      return;
+    }
+    throw new IllegalStateException("Logger is closed");
+  }
+
+  private void drain() {
+    ArrayList<String> batch = new ArrayList<>(MAX_BATCH);
+    try {
+      while (true) {
+        batch.add(lines.take());
+        lines.drainTo(batch, MAX_BATCH - 1);
+        for (String line : batch) {
+          if (line == END) {
+            out.flush();
+            return;
+          }
+          out.append(line).append('\n');
+        }
+        batch.clear();
+        if (lines.isEmpty()) {
+          out.flush();
+        }
+      }
+    } catch (IOException e) {
+      failure = e;
+      // Keep taking lines so that producers are never blocked by a failed writer
+      while (true) {
+        try {
+          if (lines.take() == END) {
+            return;
+          }
+        } catch (InterruptedException interrupted) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Writes out every line logged so far, then stops the writer thread.
+   *
+   * @throws IOException If a line could not be written.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      lines.put(END);
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing the log", e);
+    }
+    if (ownsOutput) {
+      out.close();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
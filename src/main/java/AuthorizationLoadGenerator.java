@@ -0,0 +1,191 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how fast an {@link AuthorizationServer} answers under load. It opens many connections
+ * at once, each on its own virtual thread, and has every connection send transactions taken from a
+ * transactions file one at a time, waiting for each answer before sending the next. The time from
+ * sending a line to reading its answer is recorded, and the percentiles are printed at the end.
+ *
+ * <p>Opening tens of thousands of connections needs as many file descriptors on both ends, so the
+ * open files limit ({@code ulimit -n}) may have to be raised first.
+ */
+public class AuthorizationLoadGenerator {
+
+  private final List<String> lines;
+  private final int port;
+  private final int connections;
+  private final int requests;
+
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final LongAdder approved = new LongAdder();
+  private final LongAdder denied = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder failedConnections = new LongAdder();
+
+  /**
+   * @param lines Transactions to send, in the format of a line of the transactions file.
+   * @param port The port of the server on the loopback interface.
+   * @param connections The number of connections to open at once.
+   * @param requests The number of transactions each connection sends.
+   */
+  public AuthorizationLoadGenerator(List<String> lines, int port, int connections, int requests) {
+    this.lines = lines;
+    this.port = port;
+    this.connections = connections;
+    this.requests = requests;
+  }
+
+  /**
+   * Opens every connection, then has them all send their transactions at the same time.
+   *
+   * @return The wall clock time of the sending, in nanoseconds.
+   * @throws InterruptedException If interrupted while waiting for the connections.
+   */
+  public long run() throws InterruptedException {
+    CountDownLatch connected = new CountDownLatch(connections);
+    CountDownLatch go = new CountDownLatch(1);
+    ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+    for (int c = 0; c < connections; c++) {
+      int first = (int) ((long) c * requests % lines.size());
+      clients.execute(() -> send(first, connected, go));
+    }
+    connected.await();
+    long start = System.nanoTime();
+    go.countDown();
+    clients.shutdown();
+    while (!clients.awaitTermination(1, TimeUnit.SECONDS)) {
+      // Wait for every connection to finish
+    }
+    return System.nanoTime() - start;
+  }
+
+  private void send(int first, CountDownLatch connected, CountDownLatch go) {
+    Socket socket;
+    try {
+      socket = new Socket(InetAddress.getLoopbackAddress(), port);
+    } catch (IOException e) {
+      failedConnections.increment();
+      connected.countDown();
+      return;
+    }
+    connected.countDown();
+    try (Socket s = socket;
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+        Writer out = new BufferedWriter(
+            new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+      s.setTcpNoDelay(true);
+      go.await();
+      for (int k = 0; k < requests; k++) {
+        long sent = System.nanoTime();
+        out.write(lines.get((first + k) % lines.size()));
+        out.write('\n');
+        out.flush();
+        String answer = in.readLine();
+        latency.record(System.nanoTime() - sent);
+        if (answer == null) {
+          errors.increment();
+          return;
+        } else if (answer.startsWith("APPROVED,")) {
+          approved.increment();
+        } else if (answer.startsWith("DENIED,")) {
+          denied.increment();
+        } else {
+          errors.increment();
+        }
+      }
+    } catch (IOException e) {
+      errors.increment();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Prints the number of answers, the throughput and the latency percentiles.
+   *
+   * @param elapsedNanos The wall clock time of the sending.
+   */
+  public void printSummary(long elapsedNanos) {
+    long answers = latency.count();
+    System.out.printf("%,d connections (%,d failed), %,d answers in %,.1f ms, %,.0f answers/s%n",
+        connections, failedConnections.sum(), answers, elapsedNanos / 1e6,
+        elapsedNanos == 0 ? 0 : answers * 1e9 / elapsedNanos);
+    System.out.printf("approved %,d, denied %,d, errors %,d%n", approved.sum(), denied.sum(),
+        errors.sum());
+    System.out.printf("latency p50 %,d us  p90 %,d us  p99 %,d us  p99.9 %,d us  max %,d us%n",
+        latency.percentile(50) / 1000, latency.percentile(90) / 1000,
+        latency.percentile(99) / 1000, latency.percentile(99.9) / 1000, latency.max() / 1000);
+  }
+
+  /**
+   * Runs a load test.
+   *
+   * @param args The transactions file, then optionally {@code --port=<port>}, {@code
+   * --connections=<count>} and {@code --requests=<count per connection>}.
+   */
+  public static void main(String[] args) {
+    if (args.length < 1) {
+      System.err.println("Invalid number of arguments");
+      System.exit(1);
+    }
+    int port = AuthorizationServer.DEFAULT_PORT;
+    int connections = 1000;
+    int requests = 100;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].startsWith("--port=")) {
+        port = Integer.parseInt(args[i].substring("--port=".length()));
+      } else if (args[i].startsWith("--connections=")) {
+        connections = Integer.parseInt(args[i].substring("--connections=".length()));
+      } else if (args[i].startsWith("--requests=")) {
+        requests = Integer.parseInt(args[i].substring("--requests=".length()));
+      } else {
+        System.err.println("Unknown option " + args[i]);
+        System.exit(1);
+      }
+    }
+
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      System.err.println("Could not read " + args[0]);
+      System.exit(1);
+      return;
+    }
+    // Skip the header and any blank lines
+    if (!lines.isEmpty()) {
+      lines.remove(0);
+    }
+    lines.removeIf(String::isEmpty);
+    if (lines.isEmpty()) {
+      System.err.println(args[0] + " holds no transactions");
+      System.exit(1);
+    }
+
+    AuthorizationLoadGenerator generator =
+        new AuthorizationLoadGenerator(lines, port, connections, requests);
+    try {
+      generator.printSummary(generator.run());
+    } catch (InterruptedException e) {
+      System.err.println("Interrupted");
+      System.exit(1);
+    }
+  }
+}
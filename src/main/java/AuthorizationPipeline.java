@@ -0,0 +1,276 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Authorizes transactions pushed to it in batches, for a feed that cannot wait for a whole file.
+ * Each batch goes through two stages, each on its own thread: the first checks the card numbers
+ * and looks up their accounts, the second applies the transactions to the balances. While one
+ * batch is being applied the next one is already being checked, and bounded queues between the
+ * stages keep a fast feed from running ahead of the balances.
+ *
+ * <p>The second stage applies the batches one at a time in the order they were submitted, so
+ * balances and denials are exactly those of {@link AccountManager#processTransactionsFromFile(
+ * String)} over the same transactions.
+ */
+public class AuthorizationPipeline implements Closeable {
+
+  public static final int DEFAULT_BATCH_SIZE = 256;
+  public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+  // Marks the end of the batches; compared by identity
+  private static final Batch END = new Batch(Collections.<Transaction>emptyList());
+
+  private final AccountManager manager;
+  private final int batchSize;
+  private final ArrayBlockingQueue<Batch> toValidate;
+  private final ArrayBlockingQueue<Batch> toApply;
+  private final Thread validator;
+  private final Thread applier;
+
+  private boolean closed;
+
+  /**
+   * Starts a pipeline with the default batch size and queue capacity.
+   *
+   * @param manager The accounts the transactions are applied to.
+   */
+  public AuthorizationPipeline(AccountManager manager) {
+    this(manager, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * Starts a pipeline.
+   *
+   * @param manager The accounts the transactions are applied to.
+   * @param batchSize The largest number of transactions that go through a stage at once; longer
+   * batches are split.
+   * @param queueCapacity The number of batches each queue between the stages holds.
+   */
+  public AuthorizationPipeline(AccountManager manager, int batchSize, int queueCapacity) {
+    this.manager = manager;
+    this.batchSize = Math.max(batchSize, 1);
+    toValidate = new ArrayBlockingQueue<>(Math.max(queueCapacity, 1));
+    toApply = new ArrayBlockingQueue<>(Math.max(queueCapacity, 1));
+    validator = new Thread(this::validate, "authorize-validate");
+    applier = new Thread(this::apply, "authorize-apply");
+    // A pipeline that is never closed must not keep the program running
+    validator.setDaemon(true);
+    applier.setDaemon(true);
+    validator.start();
+    applier.start();
+  }
+
+  /**
+   * Submits a batch of transactions. This blocks while the pipeline is full, so a caller cannot
+   * get more than the queue capacity ahead of the balances. The transactions must not be changed
+   * until the result is complete; denied transactions are then marked with the reason.
+   *
+   * @param transactions The transactions, in the order they are to be applied.
+   * @return The outcome of every transaction of the batch, once all of them are applied. It
+   * completes exceptionally if the batch could not be applied, for instance because the journal
+   * failed; the transactions before the failure are then already applied.
+   */
+  public synchronized CompletableFuture<Result> authorizeBatch(List<Transaction> transactions) {
+    if (closed) {
+      throw new IllegalStateException("Pipeline is closed");
+    }
+    int n = transactions.size();
+    if (n <= batchSize) {
+      return submit(transactions);
+    }
+    List<CompletableFuture<Result>> parts = new ArrayList<>();
+    for (int from = 0; from < n; from += batchSize) {
+      parts.add(submit(transactions.subList(from, Math.min(n, from + batchSize))));
+    }
+    return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]))
+        .thenApply(done -> {
+          boolean[] approved = new boolean[n];
+          int from = 0;
+          for (CompletableFuture<Result> part : parts) {
+            Result result = part.join();
+            System.arraycopy(result.approved, 0, approved, from, result.size());
+            from += result.size();
+          }
+          return new Result(transactions, approved);
+        });
+  }
+
+  private CompletableFuture<Result> submit(List<Transaction> transactions) {
+    Batch batch = new Batch(transactions);
+    if (transactions.isEmpty()) {
+      batch.result.complete(new Result(transactions, new boolean[0]));
+      return batch.result;
+    }
+    try {
+      toValidate.put(batch);
+    } catch (InterruptedException e) {
+      // The batch is dropped, and the caller gets to see the interrupt
+      Thread.currentThread().interrupt();
+      batch.result.completeExceptionally(e);
+    }
+    return batch.result;
+  }
+
+  private void validate() {
+    // Only this thread checks card numbers, so the cache needs no locking
+    HashMap<String, Boolean> validated = new HashMap<>();
+    try {
+      while (true) {
+        Batch batch = toValidate.take();
+        if (batch != END) {
+          try {
+            batch.resolve(manager, validated);
+          } catch (RuntimeException e) {
+            batch.failure = e;
+          }
+        }
+        toApply.put(batch);
+        if (batch == END) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void apply() {
+    try {
+      while (true) {
+        Batch batch = toApply.take();
+        if (batch == END) {
+          return;
+        }
+        batch.apply(manager);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Applies every batch submitted so far, then stops the stage threads.
+   *
+   * @throws IOException If interrupted while waiting for the batches.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      toValidate.put(END);
+      validator.join();
+      applier.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while authorizing transactions", e);
+    }
+  }
+
+  /**
+   * A batch on its way through the stages. The first stage fills in the card numbers' validity
+   * and accounts; the queue between the stages hands them over to the second.
+   */
+  private static class Batch {
+    final List<Transaction> transactions;
+    final CompletableFuture<Result> result = new CompletableFuture<>();
+    boolean[] validNumber;
+    CreditCard[] cards;
+    RuntimeException failure;
+
+    Batch(List<Transaction> transactions) {
+      this.transactions = transactions;
+    }
+
+    void resolve(AccountManager manager, HashMap<String, Boolean> validated) {
+      int n = transactions.size();
+      validNumber = new boolean[n];
+      cards = new CreditCard[n];
+      for (int i = 0; i < n; i++) {
+        String cardNumber = transactions.get(i).getCardNumber();
+        validNumber[i] = AccountManager.validateCardNumber(cardNumber, validated);
+        if (validNumber[i]) {
+          cards[i] = manager.findAccount(cardNumber);
+        }
+      }
+    }
+
+    void apply(AccountManager manager) {
+      if (failure != null) {
+        result.completeExceptionally(failure);
+        return;
+      }
+      int n = transactions.size();
+      boolean[] approved = new boolean[n];
+      long start = Metrics.start();
+      try {
+        for (int i = 0; i < n; i++) {
+          approved[i] = manager.applyTransaction(transactions.get(i), validNumber[i], cards[i]);
+        }
+      } catch (RuntimeException e) {
+        result.completeExceptionally(e);
+        return;
+      }
+      Metrics.stop(Metrics.Phase.AUTHORIZE, start, n);
+      result.complete(new Result(transactions, approved));
+    }
+  }
+
+  /**
+   * The outcome of a batch: which of its transactions were approved.
+   */
+  public static class Result {
+    private final List<Transaction> transactions;
+    private final boolean[] approved;
+
+    private Result(List<Transaction> transactions, boolean[] approved) {
+      this.transactions = transactions;
+      this.approved = approved;
+    }
+
+    /**
+     * The number of transactions in the batch.
+     */
+    public int size() {
+      return approved.length;
+    }
+
+    /**
+     * Whether a transaction of the batch was approved.
+     *
+     * @param i Index of the transaction in the batch.
+     * @return True if it was approved, false if it was denied.
+     */
+    public boolean isApproved(int i) {
+      return approved[i];
+    }
+
+    /**
+     * The transactions of the batch, in the order they were applied.
+     */
+    public List<Transaction> getTransactions() {
+      return transactions;
+    }
+
+    /**
+     * The denied transactions of the batch, in batch order, marked with why they were denied.
+     */
+    public ArrayList<Transaction> getDenied() {
+      ArrayList<Transaction> denied = new ArrayList<>();
+      for (int i = 0; i < approved.length; i++) {
+        if (!approved[i]) {
+          denied.add(transactions.get(i));
+        }
+      }
+      return denied;
+    }
+  }
+}
@@ -0,0 +1,308 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authorizes transactions one at a time as they arrive on a TCP socket of the loopback interface,
+ * instead of a file at a time. A client sends one transaction per line, in the format of a line of
+ * the transactions file, and gets one line back for each:
+ * <pre>
+ * APPROVED,transaction number
+ * DENIED,transaction number,reason
+ * ERROR,what is wrong with the line
+ * </pre>
+ * A client may send several lines before reading the answers; they come back in the same order.
+ * When the accounts have a {@link Journal}, no answer is sent before the journal holds its record
+ * on disk, so a client is never told of an authorization that a crash could forget.
+ *
+ * <p>Lines longer than {@link #MAX_LINE_LENGTH} characters get an error, as do transactions from
+ * a new vendor once {@link #MAX_VENDORS} vendors are known: vendor names are kept for the life of
+ * the process, so clients must not be able to add them without bound.
+ *
+ * <p>Every connection is served on its own virtual thread, so tens of thousands of open
+ * connections cost little more than their sockets. The accounts must be in concurrent mode, as
+ * connections that share a card apply their transactions to it at the same time.
+ */
+public class AuthorizationServer implements Closeable {
+
+  public static final int DEFAULT_PORT = 7465;
+
+  // Connections waiting to be accepted; a load test opens a great many at once
+  private static final int BACKLOG = 65536;
+
+  /**
+   * The longest line a client may send, well beyond any transaction.
+   */
+  public static final int MAX_LINE_LENGTH = 4096;
+
+  /**
+   * The most vendors the server lets clients register.
+   */
+  public static final int MAX_VENDORS = 1 << 16;
+
+  // Answers held back for the journal before they are sent even though more lines are waiting
+  private static final int MAX_HELD_ANSWERS = 64 * 1024;
+
+  private final AccountManager manager;
+  private final ServerSocket socket;
+  private final ExecutorService connections;
+  private final Thread acceptor;
+
+  private AuthorizationServer(AccountManager manager, int port) throws IOException {
+    this.manager = manager;
+    socket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+    connections = Executors.newVirtualThreadPerTaskExecutor();
+    acceptor = new Thread(this::accept, "authorize-accept");
+  }
+
+  /**
+   * Starts serving.
+   *
+   * @param manager The accounts, in concurrent mode.
+   * @param port The port to listen on, or 0 for any free port.
+   * @return The server, accepting connections.
+   * @throws IOException If the port cannot be listened on.
+   */
+  public static AuthorizationServer start(AccountManager manager, int port) throws IOException {
+    AuthorizationServer server = new AuthorizationServer(manager, port);
+    // Started only once the server is fully built, so the acceptor never sees it half done
+    server.acceptor.start();
+    return server;
+  }
+
+  /**
+   * The port the server listens on.
+   */
+  public int getPort() {
+    return socket.getLocalPort();
+  }
+
+  private void accept() {
+    while (!socket.isClosed()) {
+      try {
+        Socket client = socket.accept();
+        connections.execute(() -> serve(client));
+      } catch (IOException e) {
+        if (!socket.isClosed()) {
+          System.err.println("Could not accept a connection: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  private void serve(Socket client) {
+    try (Socket c = client;
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(c.getInputStream(), StandardCharsets.UTF_8))) {
+      OutputStream out = c.getOutputStream();
+      c.setTcpNoDelay(true);
+      StringBuilder line = new StringBuilder();
+      // Answers are held here, not in a stream buffer that could send them on its own
+      StringBuilder answers = new StringBuilder();
+      int length;
+      while ((length = readLine(in, line)) >= 0) {
+        if (length > MAX_LINE_LENGTH) {
+          Metrics.count(Metrics.Counter.MALFORMED_RECORDS);
+          answers.append("ERROR,line longer than ").append(MAX_LINE_LENGTH).append(" characters");
+        } else {
+          answers.append(respond(line.toString()));
+        }
+        answers.append('\n');
+        // Answers to lines that were sent together go back together
+        if (!in.ready() || answers.length() >= MAX_HELD_ANSWERS) {
+          send(out, answers);
+        }
+      }
+      send(out, answers);
+    } catch (IOException e) {
+      // The client went away, or the journal failed; either way nothing more can be answered
+    }
+  }
+
+  /**
+   * Reads a line, keeping no more than {@link #MAX_LINE_LENGTH} characters of it, and strips its
+   * line terminator.
+   *
+   * @return The length of the whole line, or -1 at the end of the stream.
+   */
+  private static int readLine(BufferedReader in, StringBuilder line) throws IOException {
+    line.setLength(0);
+    int length = 0;
+    int c;
+    while ((c = in.read()) >= 0 && c != '\n') {
+      if (length++ < MAX_LINE_LENGTH) {
+        line.append((char) c);
+      }
+    }
+    if (c < 0 && length == 0) {
+      return -1;
+    }
+    if (length <= MAX_LINE_LENGTH && length > 0 && line.charAt(length - 1) == '\r') {
+      line.setLength(--length);
+    }
+    return length;
+  }
+
+  /**
+   * Sends the answers held so far, once the journal holds the authorizations they report.
+   */
+  private void send(OutputStream out, StringBuilder answers) throws IOException {
+    if (answers.length() == 0) {
+      return;
+    }
+    Journal journal = manager.getJournal();
+    if (journal != null) {
+      try {
+        journal.sync();
+      } catch (IOException e) {
+        System.err.println("Could not write the journal: " + e.getMessage());
+        throw e;
+      }
+    }
+    out.write(answers.toString().getBytes(StandardCharsets.UTF_8));
+    out.flush();
+    answers.setLength(0);
+  }
+
+  /**
+   * Authorizes the transaction on one line.
+   *
+   * @param line A transaction in the format of a line of the transactions file.
+   * @return The answer to send back, without a newline.
+   */
+  String respond(String line) {
+    CsvFormatException[] error = new CsvFormatException[1];
+    TransactionReader reader = new TransactionReader(
+        new CsvRecordReader(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)), 1),
+        e -> error[0] = e);
+    if (!reader.hasNext()) {
+      Metrics.count(Metrics.Counter.MALFORMED_RECORDS);
+      return "ERROR," + (error[0] == null ? "empty line" : error[0].getReason());
+    }
+    Transaction t = reader.next();
+    if (t.getVendor() != null && VendorTable.find(t.getVendor()) == VendorTable.NONE
+        && VendorTable.size() >= MAX_VENDORS) {
+      return "ERROR,too many vendors";
+    }
+    try {
+      if (manager.authorizeTransaction(t)) {
+        return "APPROVED," + t.getTransactionNumber();
+      }
+    } catch (RuntimeException e) {
+      System.err.println("Could not authorize transaction " + t.getTransactionNumber() + ": " + e);
+      return "ERROR,could not authorize the transaction";
+    }
+    return "DENIED," + t.getTransactionNumber() + "," + t.getDenialReason();
+  }
+
+  /**
+   * Stops accepting connections, closes the open ones and waits for their threads to finish.
+   *
+   * @throws IOException If interrupted while waiting.
+   */
+  @Override
+  public void close() throws IOException {
+    socket.close();
+    // Interrupting a virtual thread blocked on a socket closes the socket
+    connections.shutdownNow();
+    try {
+      acceptor.join();
+      connections.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while closing connections", e);
+    }
+  }
+
+  /**
+   * Serves authorizations until the process is stopped, then prints the metrics of the run.
+   *
+   * @param args The accounts file or snapshot, then optionally {@code --port=<port>}, {@code
+   * --journal=<file>}, which is replayed over the accounts before serving if an earlier run left
+   * records in it, and {@code --velocity=<rules>}.
+   */
+  public static void main(String[] args) {
+    if (args.length < 1) {
+      System.err.println("Invalid number of arguments");
+      System.exit(1);
+    }
+    int port = DEFAULT_PORT;
+    String journalFilename = null;
+    VelocityLimits velocityLimits = null;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].startsWith("--port=")) {
+        port = Integer.parseInt(args[i].substring("--port=".length()));
+      } else if (args[i].startsWith("--journal=")) {
+        journalFilename = args[i].substring("--journal=".length());
+      } else if (args[i].startsWith("--velocity=")) {
+        try {
+          velocityLimits = VelocityLimits.parse(args[i].substring("--velocity=".length()));
+        } catch (IllegalArgumentException e) {
+          System.err.println(e.getMessage());
+          System.exit(1);
+        }
+      } else {
+        System.err.println("Unknown option " + args[i]);
+        System.exit(1);
+      }
+    }
+
+    Metrics.setEnabled(true);
+    long start = System.nanoTime();
+    AccountManager accountManager = new AccountManager(true);
+    accountManager.setVelocityLimits(velocityLimits);
+    System.out.println("Loading accounts...");
+    if (AccountSnapshot.isSnapshot(args[0])) {
+      if (!accountManager.loadSnapshot(args[0])) {
+        System.exit(1);
+      }
+    } else {
+      accountManager.loadAccounts(args[0]);
+    }
+
+    Journal journal = null;
+    try {
+      if (journalFilename != null) {
+        // The journal of an earlier run of the server holds the state the accounts file lacks
+        if (Files.exists(Paths.get(journalFilename))
+            && Files.size(Paths.get(journalFilename)) > 0) {
+          Journal.ReplaySummary replayed = Journal.replay(journalFilename, accountManager);
+          System.out.println("Replayed " + (replayed.getApproved() + replayed.getDenied())
+              + " transactions from the journal " + journalFilename);
+        }
+        journal = Journal.open(journalFilename);
+        accountManager.setJournal(journal);
+      }
+      AuthorizationServer server = AuthorizationServer.start(accountManager, port);
+      Journal openJournal = journal;
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          server.close();
+          if (openJournal != null) {
+            openJournal.close();
+          }
+        } catch (IOException e) {
+          System.err.println("There was a problem stopping the server");
+        }
+        Metrics.printSummary(System.out, System.nanoTime() - start);
+      }));
+      System.out.println("Authorizing transactions on " + InetAddress.getLoopbackAddress()
+          .getHostAddress() + ":" + server.getPort());
+    } catch (IOException e) {
+      System.err.println("Could not start the server: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,172 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A snapshot of a transactions run part way through a file: the state of every card, and how far
+ * into the file the run got. A run that dies can be resumed from its last checkpoint instead of
+ * starting over from the accounts file.
+ *
+ * <p>The snapshot is binary. After a header comes the table of vendor names, then each card with
+ * its balance, its monthly total and the columnar log of its transactions this month. A checkpoint
+ * is written to a temporary file, forced to the disk, which then replaces the previous one, so a
+ * crash while writing leaves the previous checkpoint intact. The monthly total of a card is counted
+ * again from its log on reading, and a checkpoint where the two disagree is refused.
+ */
+public class Checkpoint {
+
+  // "PA3C"
+  private static final int MAGIC = 0x50413343;
+  private static final int VERSION = 1;
+
+  private final long offset;
+  private final long lineNumber;
+  private final String lastTransactionNumber;
+  private final List<CreditCard> cards;
+
+  private Checkpoint(long offset, long lineNumber, String lastTransactionNumber,
+      List<CreditCard> cards) {
+    this.offset = offset;
+    this.lineNumber = lineNumber;
+    this.lastTransactionNumber = lastTransactionNumber;
+    this.cards = cards;
+  }
+
+  /**
+   * Writes a checkpoint, replacing any previous checkpoint in the same file.
+   *
+   * @param filename Name of the checkpoint file.
+   * @param cards Every card of the run.
+   * @param offset Offset in the transactions file of the first record not yet processed.
+   * @param lineNumber The number of lines of the transactions file before {@code offset}.
+   * @param lastTransactionNumber The number of the last transaction processed, or null.
+   * @throws IOException If the checkpoint cannot be written.
+   */
+  public static void write(String filename, Collection<CreditCard> cards, long offset,
+      long lineNumber, String lastTransactionNumber) throws IOException {
+    Path target = Paths.get(filename).toAbsolutePath();
+    Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+    try (FileOutputStream file = new FileOutputStream(temp.toFile());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(offset);
+      out.writeLong(lineNumber);
+      out.writeUTF(lastTransactionNumber == null ? "" : lastTransactionNumber);
+
+      // Vendor ids are only meaningful within one run, so the names go along with them
+      int vendors = VendorTable.size();
+      out.writeInt(vendors);
+      for (int id = 0; id < vendors; id++) {
+        out.writeUTF(VendorTable.nameOf(id));
+      }
+
+      out.writeInt(cards.size());
+      for (CreditCard card : cards) {
+        out.writeUTF(card.getCardNumber());
+        out.writeUTF(card.getAccountHolder());
+        out.writeLong(card.getCurrentBalanceCents());
+        out.writeLong(card.getMonthlyTotalCents());
+        card.getMonthlyLog().writeBinary(out);
+      }
+
+      // The move must not land before the contents do, or a crash could leave a torn checkpoint
+      out.flush();
+      file.getFD().sync();
+    }
+    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads a checkpoint.
+   *
+   * @param filename Name of the checkpoint file.
+   * @param concurrent Whether the cards are created in concurrent mode.
+   * @return The checkpoint, or null if the file does not exist.
+   * @throws IOException If the file cannot be read or is not a checkpoint.
+   */
+  public static Checkpoint read(String filename, boolean concurrent) throws IOException {
+    if (!Files.exists(Paths.get(filename))) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(filename), 1 << 16))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(filename + " is not a checkpoint");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException(filename + " has unsupported checkpoint version " + version);
+      }
+      long offset = in.readLong();
+      long lineNumber = in.readLong();
+      String lastTransactionNumber = in.readUTF();
+
+      int[] vendorIds = new int[in.readInt()];
+      for (int id = 0; id < vendorIds.length; id++) {
+        vendorIds[id] = VendorTable.idOf(in.readUTF());
+      }
+
+      int count = in.readInt();
+      List<CreditCard> cards = new ArrayList<>(count);
+      for (int k = 0; k < count; k++) {
+        CreditCard card = new CreditCard(in.readUTF(), in.readUTF(), concurrent);
+        long balance = in.readLong();
+        long monthlyTotal = in.readLong();
+        TransactionBatch log = new TransactionBatch();
+        log.readBinary(in, vendorIds);
+        card.restoreMonth(balance, log);
+        if (card.getMonthlyTotalCents() != monthlyTotal) {
+          throw new IOException(filename + " has a monthly total for card " + card.getCardNumber()
+              + " that does not match its transactions");
+        }
+        cards.add(card);
+      }
+      return new Checkpoint(offset, lineNumber,
+          lastTransactionNumber.isEmpty() ? null : lastTransactionNumber, cards);
+    } catch (EOFException e) {
+      throw new IOException(filename + " is truncated", e);
+    }
+  }
+
+  /**
+   * Offset in the transactions file of the first record not yet processed.
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * The number of lines of the transactions file before {@link #getOffset()}.
+   */
+  public long getLineNumber() {
+    return lineNumber;
+  }
+
+  /**
+   * The number of the last transaction processed, or null if none was.
+   */
+  public String getLastTransactionNumber() {
+    return lastTransactionNumber;
+  }
+
+  /**
+   * The cards as they were at the checkpoint.
+   */
+  public List<CreditCard> getCards() {
+    return cards;
+  }
+}
@@ -4,11 +4,25 @@
  * Reference: Textbook, Stackoverflow.
  */
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * Provides a capability to purchase items and shows a summary of monthly transactions. {@link
- * #transactions} list will be empty whenever {@link #closeMonth()} is called.
+ * #transactions} log will be empty whenever {@link #closeMonth()} is called. The log is a columnar
+ * {@link TransactionBatch}, so a month of purchases costs a few primitive array slots per record
+ * rather than a Transaction object each.
+ *
+ * <p>The limit check and the balance update of {@link #processTransaction(Transaction)} happen as
+ * one compare-and-set, so a card can authorize transactions from several threads at once without
+ * going past its limit. A card created in concurrent mode also keeps its monthly transactions in a
+ * concurrent log, which makes it fully safe to share between request threads.
+ *
+ * <p>A card may also be a view of a slot of an {@link AccountLedger}, which then holds its state
+ * and its transactions of the month; such a card is as safe to share as a concurrent one.
  *
  * @author Yong Hoon Do, yhdo@ucsd.edu
  * @author A Kim, ayk037@ucsd.edu
@@ -21,35 +35,78 @@ public class CreditCard {
    * denied.
    */
   private enum TransactionProcess {
-    OK(""),
-    LIMIT_EXCEED("Account Limit Exceeds."),
-    INCORRECT_ACCOUNT("The given transaction does not math with the card number.");
+    OK("", Metrics.Counter.APPROVED),
+    LIMIT_EXCEED("Account Limit Exceeds.", Metrics.Counter.LIMIT_EXCEEDED),
+    VELOCITY_EXCEED("Account Velocity Limit Exceeds.", Metrics.Counter.VELOCITY_EXCEEDED),
+    INCORRECT_ACCOUNT("The given transaction does not math with the card number.",
+        Metrics.Counter.INCORRECT_ACCOUNT);
 
     private String message;
+    private Metrics.Counter counter;
 
-    TransactionProcess(String m) {
+    TransactionProcess(String m, Metrics.Counter c) {
       message = m;
+      counter = c;
     }
 
     public String getMessage() {
       return message;
     }
+
+    public Metrics.Counter getCounter() {
+      return counter;
+    }
   }
 
+  private static final AtomicLongFieldUpdater<CreditCard> BALANCE =
+      AtomicLongFieldUpdater.newUpdater(CreditCard.class, "currentBalanceCents");
+
+  // Terms of a new card
+  static final long DEFAULT_LIMIT_CENTS = 500000L;
+  static final long DEFAULT_OVERDRAFT_CENTS = 100000L;
+  static final long DEFAULT_REBATE_BASIS_POINTS = 200L;
+
+  /**
+   * The ledger holding the state of this card, or null if the card holds its own, and its slot.
+   */
+  private final AccountLedger ledger;
+  private final int slot;
+
+  // Money is held in cents and the rebate rate in basis points, so that all sums are exact
   private String cardNumber;
   private String accountHolderName;
-  private double limit;
-  private double currentBalance;
-  private double overDraftAmount;
-  private double rebateRate;
-  private ArrayList<Transaction> transactions;
+
+  // The card number as a long with its digit count, to match columnar records without a String
+  private long cardNumberValue;
+  private byte cardNumberDigits;
+
+  private long limitCents;
+  private long overDraftCents;
+  private long rebateBasisPoints;
 
   /**
-   * A monthly purchased amount so that it resets to zero whenever the credit card closes month. It
-   * updates at {@link #processTransaction(Transaction)}, and resets the value as zero at {@link
-   * #closeMonth()}.
+   * What the card spent recently, checked against its velocity rules, or null if it has none.
    */
-  private double monthylTotalPurchasedAmount;
+  private VelocityWindow velocity;
+
+  /**
+   * The current balance in cents. It is volatile so that it can be updated with a compare-and-set.
+   */
+  private volatile long currentBalanceCents;
+
+  /**
+   * The transactions since the last month was closed. Only one of the two is used, depending on
+   * whether the card was created in concurrent mode.
+   */
+  private TransactionBatch transactions;
+  private ConcurrentLinkedQueue<Transaction> concurrentTransactions;
+
+  /**
+   * Running totals of the month, among them the monthly purchased amount, so that they start over
+   * whenever the credit card closes month. They are updated at {@link
+   * #processTransaction(Transaction)}, and start over at {@link #closeMonth()}.
+   */
+  private final MonthSummary.Running month;
 
   /**
    * Gives a monthly summary of purchasing activities and refreshes the current transaction list so
@@ -58,32 +115,100 @@ public class CreditCard {
    * @return A monthly summary of the purchasing activities.
    */
   public String closeMonth() {
-    StringBuilder builder = new StringBuilder();
-    double rebatedAmount = monthylTotalPurchasedAmount * rebateRate;
-    currentBalance -= rebatedAmount;
+    try {
+      return StatementWriter.render(this::closeMonth);
+    } catch (IOException e) {
+      // Rendering into memory does not fail
+      throw new UncheckedIOException(e);
+    }
+  }
 
-    builder.append("Account: ").append(accountHolderName).append(" ").append(cardNumber.substring(cardNumber.length() - 4)).append("\n");
-    builder.append("-----------------------------------------------------").append("\n");
-    for (Transaction t : transactions) {
-      builder.append(t).append("\n");
+  /**
+   * Writes a monthly summary of purchasing activities straight to a statement writer and refreshes
+   * the current transaction list so that gets ready to track of the next month transaction.
+   *
+   * @param out Where to write the monthly summary.
+   * @throws IOException If the writer fails.
+   */
+  public void closeMonth(StatementWriter out) throws IOException {
+    if (ledger != null) {
+      closeLedgerMonth(out);
+      return;
     }
-    if (transactions.isEmpty()) {
-      builder.append("NO TRANSACTIONS FOUND\n");
+    long monthlyTotal;
+    ArrayList<Transaction> closed = null;
+    if (concurrentTransactions != null) {
+      // Purchases are recorded under the same monitor, so each one is in this statement and its
+      // total, or in those of the next month
+      synchronized (month) {
+        monthlyTotal = month.close();
+        closed = new ArrayList<>(concurrentTransactions);
+        concurrentTransactions.clear();
+      }
+    } else {
+      monthlyTotal = month.close();
     }
-    builder.append("-----------------------------------------------------").append("\n");
-
-    builder.append("Rebate received: $").append(rebatedAmount).append("\n");
-    builder.append("Current Balance: $").append(currentBalance).append("\n");
+    long rebatedAmount = Money.applyRate(monthlyTotal, rebateBasisPoints);
+    long currentBalance = BALANCE.addAndGet(this, -rebatedAmount);
 
-    if (currentBalance - limit > 0) {
-      builder.append("ACCOUNT OVERDRAWN BY: $").append(currentBalance - limit).append("\n");
+    writeHeader(out);
+    boolean isEmpty = true;
+    if (closed != null) {
+      for (Transaction t : closed) {
+        t.writeDescription(out).append('\n');
+        isEmpty = false;
+      }
+    } else {
+      for (int i = 0; i < transactions.size(); i++) {
+        transactions.writeDescription(out, i).append('\n');
+        isEmpty = false;
+      }
     }
+    writeFooter(out, isEmpty, rebatedAmount, currentBalance, limitCents);
 
     // refreshes monthly tracked values.
-    transactions.clear();
-    monthylTotalPurchasedAmount = 0d;
+    if (transactions != null) {
+      transactions.clear();
+    }
+  }
+
+  /**
+   * Closes the month of a card that is a view of a ledger slot, whose transactions the ledger
+   * moves out of its log as the month is closed.
+   */
+  private void closeLedgerMonth(StatementWriter out) throws IOException {
+    TransactionBatch log = new TransactionBatch(0);
+    long monthlyTotal = ledger.closeMonth(slot, log);
+    long rebatedAmount = Money.applyRate(monthlyTotal, ledger.rebateBasisPoints(slot));
+    long currentBalance = ledger.addBalanceCents(slot, -rebatedAmount);
 
-    return builder.toString();
+    writeHeader(out);
+    for (int i = 0; i < log.size(); i++) {
+      log.writeDescription(out, i).append('\n');
+    }
+    writeFooter(out, log.size() == 0, rebatedAmount, currentBalance, ledger.limitCents(slot));
+  }
+
+  private void writeHeader(StatementWriter out) throws IOException {
+    String number = getCardNumber();
+    out.append("Account: ").append(getAccountHolder()).append(' ')
+        .append(number, number.length() - 4, number.length()).append('\n');
+    out.append("-----------------------------------------------------\n");
+  }
+
+  private static void writeFooter(StatementWriter out, boolean isEmpty, long rebatedAmount,
+      long currentBalance, long limitCents) throws IOException {
+    if (isEmpty) {
+      out.append("NO TRANSACTIONS FOUND\n");
+    }
+    out.append("-----------------------------------------------------\n");
+
+    out.append("Rebate received: $").appendCents(rebatedAmount).append('\n');
+    out.append("Current Balance: $").appendCents(currentBalance).append('\n');
+
+    if (currentBalance - limitCents > 0) {
+      out.append("ACCOUNT OVERDRAWN BY: $").appendCents(currentBalance - limitCents).append('\n');
+    }
   }
 
   /**
@@ -93,14 +218,63 @@ public class CreditCard {
    * @param accountHolderName The holder of the credit card.
    */
   public CreditCard(String cardNumber, String accountHolderName) {
+    this(cardNumber, accountHolderName, false);
+  }
+
+  /**
+   * Initializes the instance variables with its default value.
+   *
+   * @param cardNumber A valid card number.
+   * @param accountHolderName The holder of the credit card.
+   * @param concurrent Whether transactions may be processed from several threads at once.
+   */
+  public CreditCard(String cardNumber, String accountHolderName, boolean concurrent) {
+    ledger = null;
+    slot = -1;
+    month = new MonthSummary.Running();
     this.cardNumber = cardNumber;
     this.accountHolderName = accountHolderName;
-    limit = 5000d;
-    currentBalance = 0d;
-    rebateRate = .02d;
-    overDraftAmount = 1000d;
-    monthylTotalPurchasedAmount = 0d;
-    transactions = new ArrayList<>();
+    cardNumberDigits = TransactionBatch.digitCount(cardNumber);
+    if (cardNumberDigits > 0) {
+      cardNumberValue = Long.parseLong(cardNumber);
+    }
+    limitCents = DEFAULT_LIMIT_CENTS;
+    currentBalanceCents = 0L;
+    rebateBasisPoints = DEFAULT_REBATE_BASIS_POINTS;
+    overDraftCents = DEFAULT_OVERDRAFT_CENTS;
+    if (concurrent) {
+      concurrentTransactions = new ConcurrentLinkedQueue<>();
+    } else {
+      // Its arrays are only allocated with the first transaction
+      transactions = new TransactionBatch(0);
+    }
+  }
+
+  /**
+   * Initializes the instance variables with its default value, from a card number held as a long.
+   *
+   * @param cardNumberValue A valid card number.
+   * @param cardNumberDigits The number of digits of the card number, leading zeros included.
+   * @param accountHolderName The holder of the credit card.
+   * @param concurrent Whether transactions may be processed from several threads at once.
+   */
+  CreditCard(long cardNumberValue, int cardNumberDigits, String accountHolderName,
+      boolean concurrent) {
+    this(TransactionBatch.digitsToString(cardNumberValue, cardNumberDigits), accountHolderName,
+        concurrent);
+  }
+
+  /**
+   * A view of a ledger slot. It holds no state of its own, so it is cheap to create for a single
+   * use.
+   *
+   * @param ledger The ledger.
+   * @param slot The slot of the account in the ledger.
+   */
+  CreditCard(AccountLedger ledger, int slot) {
+    this.ledger = ledger;
+    this.slot = slot;
+    month = null;
   }
 
   /**
@@ -121,30 +295,128 @@ public class CreditCard {
       process = TransactionProcess.INCORRECT_ACCOUNT;
     }
 
-    boolean isExceedingLimit = (overDraftAmount + limit)
-        - (currentBalance + t.getPurchaseAmount()) < 0;
-    if (process == TransactionProcess.OK && isExceedingLimit) {
-      process = TransactionProcess.LIMIT_EXCEED;
+    if (process == TransactionProcess.OK) {
+      process = authorize(t.getEpochDay(), t.getPurchaseCents());
     }
 
+    Metrics.count(process.getCounter());
     switch (process) {
       case OK:
-        transactions.add(t);
-        currentBalance += t.getPurchaseAmount();
-        monthylTotalPurchasedAmount += t.getPurchaseAmount();
+        record(t);
         return true;
       case LIMIT_EXCEED:
+      case VELOCITY_EXCEED:
       case INCORRECT_ACCOUNT:
         t.denyTransaction(process.getMessage());
+        return false;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Processes a record of a columnar batch the same way as {@link #processTransaction(Transaction)},
+   * without creating a Transaction for it. A denied record is marked as such in the batch.
+   *
+   * @param batch The batch holding the record.
+   * @param i Index of the record.
+   * @return Success of the process.
+   */
+  public boolean processTransaction(TransactionBatch batch, int i) {
+    TransactionProcess process = TransactionProcess.OK;
+    int digits = ledger != null ? ledger.cardNumberDigits(slot) : cardNumberDigits;
+    long value = ledger != null ? ledger.cardNumberValue(slot) : cardNumberValue;
+    boolean isSameCard = digits > 0 && batch.isNumericCard(i)
+        ? batch.cardNumberValue(i) == value && batch.cardNumberDigits(i) == digits
+        : batch.cardNumber(i).equals(getCardNumber());
+    if (!isSameCard) {
+      process = TransactionProcess.INCORRECT_ACCOUNT;
+    }
+
+    if (process == TransactionProcess.OK) {
+      process = authorize(batch.epochDay(i), batch.amountCents(i));
+    }
+
+    Metrics.count(process.getCounter());
+    switch (process) {
+      case OK:
+        if (ledger != null) {
+          ledger.record(slot, batch, i);
+        } else if (concurrentTransactions != null) {
+          Transaction t = batch.toTransaction(i);
+          synchronized (month) {
+            concurrentTransactions.add(t);
+            month.add(batch.epochDay(i), batch.vendorId(i), batch.amountCents(i));
+          }
+        } else {
+          transactions.add(batch, i);
+          month.add(batch.epochDay(i), batch.vendorId(i), batch.amountCents(i));
+        }
+        return true;
+      case LIMIT_EXCEED:
+      case VELOCITY_EXCEED:
+      case INCORRECT_ACCOUNT:
+        batch.deny(i, process.getMessage());
+        return false;
       default:
         return false;
     }
   }
 
+  /**
+   * Checks a purchase on this card against the velocity rules and the limit, and adds it to the
+   * current balance if it passes both. A purchase that passes the velocity rules but not the limit
+   * is taken back out of the velocity window.
+   *
+   * @param epochDay The day of the purchase, or {@link EpochDay#NONE}.
+   * @param amount The purchase amount in cents.
+   * @return Whether the purchase is allowed, or why not.
+   */
+  private TransactionProcess authorize(int epochDay, long amount) {
+    VelocityWindow window = velocity;
+    if (window != null && !window.tryRecord(epochDay, amount)) {
+      return TransactionProcess.VELOCITY_EXCEED;
+    }
+    if (!reserve(amount)) {
+      if (window != null) {
+        window.remove(epochDay, amount);
+      }
+      return TransactionProcess.LIMIT_EXCEED;
+    }
+    return TransactionProcess.OK;
+  }
+
+  /**
+   * Adds a purchase to the current balance unless it would exceed the limit plus the overdraft.
+   * The check and the update are one compare-and-set, retried if another thread changed the
+   * balance in between.
+   *
+   * @param amount The purchase amount in cents.
+   * @return False if the purchase would exceed the limit, true once it is added.
+   */
+  private boolean reserve(long amount) {
+    if (ledger != null) {
+      return ledger.reserve(slot, amount);
+    }
+    while (true) {
+      long balance = currentBalanceCents;
+      boolean isExceedingLimit = (overDraftCents + limitCents) - (balance + amount) < 0;
+      if (isExceedingLimit) {
+        return false;
+      }
+      if (BALANCE.compareAndSet(this, balance, balance + amount)) {
+        return true;
+      }
+    }
+  }
+
   /**
    * The account number associated with the card.
    */
   public String getCardNumber() {
+    if (cardNumber == null && ledger != null) {
+      cardNumber = ledger.cardNumber(slot);
+    }
     return cardNumber;
   }
 
@@ -152,25 +424,211 @@ public class CreditCard {
    * The name of the account holder.
    */
   public String getAccountHolder() {
-    return accountHolderName;
+    return ledger != null ? ledger.accountHolder(slot) : accountHolderName;
   }
 
   /**
    * The current balance on the card.
    */
   public double getCurrentBalance() {
-    return currentBalance;
+    return Money.toDollars(getCurrentBalanceCents());
   }
 
   /**
-   * A reference to the ArrayList of Transactions since the last month was closed.
+   * The current balance on the card, in cents.
+   */
+  public long getCurrentBalanceCents() {
+    return ledger != null ? ledger.balanceCents(slot) : currentBalanceCents;
+  }
+
+  /**
+   * The Transactions since the last month was closed. They are created from the monthly log on
+   * each call, so changes to the list do not affect the card.
    */
   public ArrayList<Transaction> getCurrentTransactions() {
-    return transactions;
+    if (ledger != null) {
+      return ledger.monthlyLog(slot).toTransactions();
+    }
+    if (concurrentTransactions != null) {
+      return new ArrayList<>(concurrentTransactions);
+    }
+    return transactions.toTransactions();
+  }
+
+  /**
+   * The amount purchased since the last month was closed, in cents.
+   */
+  public long getMonthlyTotalCents() {
+    return ledger != null ? ledger.monthlyTotalCents(slot) : month.totalCents();
+  }
+
+  /**
+   * The figures of the month so far, as a statement would show them, without walking the
+   * transactions. A view of a ledger slot keeps no running totals, so it counts them from the
+   * slot's transactions.
+   */
+  public MonthSummary getMonthSummary() {
+    if (ledger != null) {
+      MonthSummary.Running running = new MonthSummary.Running();
+      TransactionBatch log = ledger.monthlyLog(slot);
+      for (int i = 0; i < log.size(); i++) {
+        running.add(log.epochDay(i), log.vendorId(i), log.amountCents(i));
+      }
+      return running.summarize(ledger.rebateBasisPoints(slot), ledger.balanceCents(slot));
+    }
+    return month.summarize(rebateBasisPoints, currentBalanceCents);
+  }
+
+  /**
+   * A copy of the transactions since the last month was closed, as a columnar batch.
+   */
+  TransactionBatch getMonthlyLog() {
+    if (ledger != null) {
+      return ledger.monthlyLog(slot);
+    }
+    TransactionBatch log = new TransactionBatch(monthlyLogSize());
+    if (concurrentTransactions != null) {
+      for (Transaction t : concurrentTransactions) {
+        log.add(t);
+      }
+    } else {
+      for (int i = 0; i < transactions.size(); i++) {
+        log.add(transactions, i);
+      }
+    }
+    return log;
+  }
+
+  private int monthlyLogSize() {
+    return concurrentTransactions != null ? concurrentTransactions.size() : transactions.size();
+  }
+
+  /**
+   * Puts the card back in the middle of a month, as saved by a checkpoint.
+   *
+   * The running totals of the month are counted again from the log.
+   *
+   * @param balanceCents The current balance in cents.
+   * @param log The transactions so far this month.
+   */
+  void restoreMonth(long balanceCents, TransactionBatch log) {
+    if (ledger != null) {
+      ledger.restoreMonth(slot, balanceCents, log);
+      return;
+    }
+    currentBalanceCents = balanceCents;
+    synchronized (month) {
+      month.close();
+      for (int i = 0; i < log.size(); i++) {
+        month.add(log.epochDay(i), log.vendorId(i), log.amountCents(i));
+      }
+      if (concurrentTransactions != null) {
+        concurrentTransactions.clear();
+        concurrentTransactions.addAll(log.toTransactions());
+      } else {
+        transactions.clear();
+        for (int i = 0; i < log.size(); i++) {
+          transactions.add(log, i);
+        }
+      }
+    }
+    if (velocity != null) {
+      setVelocityLimits(getVelocityLimits());
+    }
+  }
+
+  /**
+   * Adds an approved transaction read back from a {@link Journal}. It was approved when it was
+   * recorded, so the limit is not checked again.
+   *
+   * @param t The transaction.
+   */
+  void replayApproved(Transaction t) {
+    if (ledger != null) {
+      ledger.addBalanceCents(slot, t.getPurchaseCents());
+    } else {
+      BALANCE.addAndGet(this, t.getPurchaseCents());
+    }
+    record(t);
+    if (velocity != null) {
+      velocity.record(t.getEpochDay(), t.getPurchaseCents());
+    }
+  }
+
+  // Adds an approved transaction to the month
+  private void record(Transaction t) {
+    if (ledger != null) {
+      ledger.record(slot, t);
+      return;
+    }
+    int vendorId = VendorTable.idOf(t.getVendor());
+    if (concurrentTransactions != null) {
+      // The log and the running totals change together, as closeMonth takes both at once
+      synchronized (month) {
+        concurrentTransactions.add(t);
+        month.add(t.getEpochDay(), vendorId, t.getPurchaseCents());
+      }
+    } else {
+      transactions.add(t);
+      month.add(t.getEpochDay(), vendorId, t.getPurchaseCents());
+    }
+  }
+
+  /**
+   * Sets velocity rules that every later purchase must pass, on top of the limit, such as at most
+   * so many purchases or so much spent over a rolling day or week. The purchases of this month so
+   * far count towards the rules; earlier months do not.
+   *
+   * @param limits The rules, or null for none, which is the default.
+   * @throws UnsupportedOperationException If rules are set on a view of a ledger slot, which has
+   * nowhere to keep what the card spent recently.
+   */
+  public void setVelocityLimits(VelocityLimits limits) {
+    if (ledger != null && limits != null) {
+      throw new UnsupportedOperationException("Velocity limits need a card of its own");
+    }
+    if (limits == null) {
+      velocity = null;
+      return;
+    }
+    VelocityWindow window = new VelocityWindow(limits);
+    if (concurrentTransactions != null) {
+      for (Transaction t : concurrentTransactions) {
+        window.record(t.getEpochDay(), t.getPurchaseCents());
+      }
+    } else {
+      for (int i = 0; i < transactions.size(); i++) {
+        window.record(transactions.epochDay(i), transactions.amountCents(i));
+      }
+    }
+    velocity = window;
+  }
+
+  /**
+   * The velocity rules of the card, or null if it has none.
+   */
+  public VelocityLimits getVelocityLimits() {
+    VelocityWindow window = velocity;
+    return window == null ? null : window.getLimits();
+  }
+
+  /**
+   * Whether the card was created for processing transactions from several threads at once.
+   */
+  public boolean isConcurrent() {
+    return ledger != null || concurrentTransactions != null;
   }
 
   public void setCurrentBalance(double amt) {
-    currentBalance = amt;
+    setCurrentBalanceCents(Money.toCents(amt));
+  }
+
+  public void setCurrentBalanceCents(long cents) {
+    if (ledger != null) {
+      ledger.setBalanceCents(slot, cents);
+    } else {
+      currentBalanceCents = cents;
+    }
   }
 
   @Override
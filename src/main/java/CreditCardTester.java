@@ -3,6 +3,7 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CreditCardTester {
 
@@ -30,6 +31,9 @@ public class CreditCardTester {
   // main function calls tester
   public static void main(String[] args) {
     testCreditCard();
+    testVelocity();
+    testConcurrentPurchases();
+    testConcurrentCloseMonth();
   }
 
   private static void testCreditCard() {
@@ -189,4 +193,136 @@ public class CreditCardTester {
     }
   }
 
+  private static void testVelocity() {
+
+    // At most 2 purchases a day and $100 over a rolling week
+    CreditCard card = new CreditCard(CARD_NUMBER, ACCOUNT_HOLDER);
+    card.setVelocityLimits(new VelocityLimits(1, 2, 0).and(7, 0, 10000));
+    DateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+
+    // Testing the daily purchase count
+    System.out.print("TEST velocity purchases per day: ");
+    try {
+      Date day = dateFormat.parse("2017-04-10");
+      Date nextDay = dateFormat.parse("2017-04-11");
+      boolean first = card.processTransaction(
+          new Transaction("1", CARD_NUMBER, day, VND_CHEAP, 10.0));
+      boolean second = card.processTransaction(
+          new Transaction("2", CARD_NUMBER, day, VND_CHEAP, 10.0));
+      Transaction third = new Transaction("3", CARD_NUMBER, day, VND_CHEAP, 10.0);
+      boolean denied = !card.processTransaction(third);
+      boolean fourth = card.processTransaction(
+          new Transaction("4", CARD_NUMBER, nextDay, VND_CHEAP, 10.0));
+      if (first && second && denied && fourth
+          && third.getDenialReason().equals("Account Velocity Limit Exceeds.")) {
+        System.out.println("PASSED!");
+      } else {
+        System.out.println("FAILED - Expected the third purchase of a day to be denied");
+      }
+    } catch (Exception e) {
+      System.out.println("EXCEPTION!");
+    }
+
+    // Testing the weekly amount: $30 spent so far, $70 more fits, then nothing until the week rolls
+    System.out.print("TEST velocity amount per week: ");
+    try {
+      boolean fits = card.processTransaction(
+          new Transaction("5", CARD_NUMBER, dateFormat.parse("2017-04-12"), VND_EXPNS, 70.0));
+      boolean over = card.processTransaction(
+          new Transaction("6", CARD_NUMBER, dateFormat.parse("2017-04-16"), VND_EXPNS, 0.01));
+      boolean rolled = card.processTransaction(
+          new Transaction("7", CARD_NUMBER, dateFormat.parse("2017-04-17"), VND_EXPNS, 20.0));
+      if (fits && !over && rolled) {
+        System.out.println("PASSED!");
+      } else {
+        System.out.println("FAILED - Expected the weekly amount to roll with the days");
+      }
+    } catch (Exception e) {
+      System.out.println("EXCEPTION!");
+    }
+  }
+
+  private static void testConcurrentPurchases() {
+
+    // 8 threads race 8,000 purchases of $1.00 against the $6,000 of limit and overdraft
+    System.out.print("TEST concurrent purchases: ");
+    try {
+      CreditCard card = new CreditCard(CARD_NUMBER, ACCOUNT_HOLDER, true);
+      Date day = new SimpleDateFormat(DATE_FORMAT).parse(DATE);
+      AtomicInteger approved = new AtomicInteger();
+      Thread[] threads = new Thread[8];
+      for (int k = 0; k < threads.length; k++) {
+        threads[k] = new Thread(() -> {
+          for (int i = 0; i < 1000; i++) {
+            if (card.processTransaction(new Transaction("1", CARD_NUMBER, day, VND_CHEAP, 1.0))) {
+              approved.incrementAndGet();
+            }
+          }
+        });
+        threads[k].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      if (approved.get() == 6000 && card.getCurrentBalanceCents() == 600000
+          && card.getCurrentTransactions().size() == 6000
+          && card.getMonthlyTotalCents() == 600000) {
+        System.out.println("PASSED!");
+      } else {
+        System.out.println("FAILED - Expected exactly the limit and overdraft to be approved");
+      }
+    } catch (ParseException | InterruptedException e) {
+      System.out.println("EXCEPTION! Something went wrong :(");
+    }
+  }
+
+  private static void testConcurrentCloseMonth() {
+
+    // Months are closed while 4 threads make 4,000 purchases of $1.00; each statement must list
+    // exactly the purchases its rebate is counted from, 2 cents each
+    System.out.print("TEST concurrent close month: ");
+    try {
+      CreditCard card = new CreditCard(CARD_NUMBER, ACCOUNT_HOLDER, true);
+      Date day = new SimpleDateFormat(DATE_FORMAT).parse(DATE);
+      Thread[] threads = new Thread[4];
+      for (int k = 0; k < threads.length; k++) {
+        threads[k] = new Thread(() -> {
+          for (int i = 0; i < 1000; i++) {
+            card.processTransaction(new Transaction("1", CARD_NUMBER, day, VND_CHEAP, 1.0));
+          }
+        });
+        threads[k].start();
+      }
+      boolean matches = true;
+      int listed = 0;
+      boolean running = true;
+      while (running) {
+        running = false;
+        for (Thread thread : threads) {
+          running |= thread.isAlive();
+        }
+        // The last statement is taken once every purchase is made
+        String[] lines = card.closeMonth().split("\n");
+        int purchases = 0;
+        long rebate = -1;
+        for (String line : lines) {
+          if (line.contains(VND_CHEAP)) {
+            purchases++;
+          } else if (line.startsWith("Rebate received: $")) {
+            String amount = line.substring("Rebate received: $".length());
+            rebate = Money.toCents(Double.parseDouble(amount));
+          }
+        }
+        matches &= rebate == purchases * 2L;
+        listed += purchases;
+      }
+      if (matches && listed == 4000 && card.getMonthlyTotalCents() == 0) {
+        System.out.println("PASSED!");
+      } else {
+        System.out.println("FAILED - Expected each statement to match its rebate");
+      }
+    } catch (ParseException e) {
+      System.out.println("EXCEPTION! Something went wrong :(");
+    }
+  }
 }
@@ -0,0 +1,35 @@
+/**
+ * Signals a malformed record in a comma separated data file. The message names the offending line
+ * so the record can be reported and skipped.
+ */
+public class CsvFormatException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long lineNumber;
+  private final String reason;
+
+  /**
+   * @param lineNumber Line of the file holding the malformed record.
+   * @param message What is wrong with the record.
+   */
+  public CsvFormatException(long lineNumber, String message) {
+    super("line " + lineNumber + ": " + message);
+    this.lineNumber = lineNumber;
+    this.reason = message;
+  }
+
+  /**
+   * @return Line of the file holding the malformed record
+   */
+  public long getLineNumber() {
+    return lineNumber;
+  }
+
+  /**
+   * @return What is wrong with the record, without the line number
+   */
+  public String getReason() {
+    return reason;
+  }
+}
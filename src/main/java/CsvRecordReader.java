@@ -0,0 +1,434 @@
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A comma separated record reader for the accounts and transactions files. Bytes are read through a
+ * {@link FileChannel} into one large buffer, and fields are parsed in place: numbers, amounts and
+ * dates are decoded straight from the buffer, and a {@code String} is only created for fields the
+ * caller asks for as text.
+ *
+ * <p>A malformed field raises a {@link CsvFormatException} carrying the line number, so the caller
+ * can report that one line and carry on with the next record.
+ */
+public class CsvRecordReader implements Closeable {
+
+  private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+  private static final int MAX_FIELDS = 16;
+
+  private final FileChannel channel;
+  private ByteBuffer buf;
+
+  // Valid data in the buffer is [pos, end)
+  private int pos;
+  // Offset in the input of the first byte of the buffer
+  private long bufferOffset;
+  private int end;
+  private boolean eof;
+
+  private long lineNumber;
+  private int fieldCount;
+  private final int[] fieldStart = new int[MAX_FIELDS];
+  private final int[] fieldEnd = new int[MAX_FIELDS];
+
+  private byte[] scratch = new byte[64];
+
+  // Strings handed out by fieldAsInternedString, by a hash of their bytes
+  private static final int INTERN_TABLE_SIZE = 1024;
+  private final String[] interned = new String[INTERN_TABLE_SIZE];
+
+  // Dates decoded by fieldAsEpochDay, by a hash of their ten bytes; a monthly file holds few
+  private static final int DATE_CACHE_SIZE = 64;
+  private final long[] cachedDateHigh = new long[DATE_CACHE_SIZE];
+  private final short[] cachedDateLow = new short[DATE_CACHE_SIZE];
+  private final int[] cachedEpochDay = new int[DATE_CACHE_SIZE];
+
+  {
+    Arrays.fill(cachedEpochDay, EpochDay.NONE);
+  }
+
+  /**
+   * Opens a file for reading.
+   *
+   * @param filename Name of the file to read.
+   * @throws FileNotFoundException If the file cannot be opened.
+   */
+  public CsvRecordReader(String filename) throws FileNotFoundException {
+    channel = new FileInputStream(filename).getChannel();
+    buf = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+    pos = 0;
+    end = 0;
+  }
+
+  /**
+   * Opens a file for reading from a byte offset, such as one returned by {@link #offset()} while
+   * reading the file before.
+   *
+   * @param filename Name of the file to read.
+   * @param offset Offset of the first byte to read; it should be the start of a line.
+   * @param linesBefore The number of lines before {@code offset}, so line numbers in error reports
+   * stay those of the whole file.
+   * @throws IOException If the file cannot be opened or positioned.
+   */
+  public CsvRecordReader(String filename, long offset, long linesBefore) throws IOException {
+    this(filename);
+    channel.position(offset);
+    bufferOffset = offset;
+    lineNumber = linesBefore;
+  }
+
+  /**
+   * Reads records from the remaining bytes of a buffer, such as a slice of a memory mapped file.
+   *
+   * @param data The bytes to read, from its position up to its limit.
+   * @param firstLineNumber Line number of the first line in {@code data}, used in error reports.
+   */
+  public CsvRecordReader(ByteBuffer data, long firstLineNumber) {
+    channel = null;
+    buf = data;
+    pos = data.position();
+    end = data.limit();
+    bufferOffset = -pos;
+    eof = true;
+    lineNumber = firstLineNumber - 1;
+  }
+
+  /**
+   * Advances to the next non-blank line and splits it into fields.
+   *
+   * @return False at the end of the input, true otherwise.
+   * @throws IOException If the underlying file cannot be read.
+   */
+  public boolean nextRecord() throws IOException {
+    while (true) {
+      int newline = indexOfNewline(pos);
+      while (newline < 0 && fill()) {
+        newline = indexOfNewline(pos);
+      }
+      if (newline < 0 && pos == end) {
+        fieldCount = 0;
+        return false;
+      }
+
+      int lineStart = pos;
+      int lineEnd = newline < 0 ? end : newline;
+      pos = newline < 0 ? end : newline + 1;
+      lineNumber++;
+
+      if (lineEnd > lineStart && buf.get(lineEnd - 1) == '\r') {
+        lineEnd--;
+      }
+      if (lineEnd > lineStart) {
+        split(lineStart, lineEnd);
+        return true;
+      }
+    }
+  }
+
+  private int indexOfNewline(int from) {
+    for (int i = from; i < end; i++) {
+      if (buf.get(i) == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Moves the unread bytes to the front of the buffer and reads more from the channel, growing the
+   * buffer if a single line fills all of it.
+   *
+   * @return False if there was nothing more to read.
+   */
+  private boolean fill() throws IOException {
+    if (eof) {
+      return false;
+    }
+    int remaining = end - pos;
+    bufferOffset += pos;
+    if (remaining == buf.capacity()) {
+      ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() * 2);
+      buf.limit(end).position(pos);
+      bigger.put(buf);
+      buf = bigger;
+    } else {
+      buf.limit(end).position(pos);
+      buf.compact();
+    }
+    pos = 0;
+    buf.limit(buf.capacity()).position(remaining);
+    int n = channel.read(buf);
+    if (n < 0) {
+      eof = true;
+      n = 0;
+    }
+    end = remaining + n;
+    return n > 0 || !eof;
+  }
+
+  private void split(int lineStart, int lineEnd) {
+    fieldCount = 0;
+    int start = lineStart;
+    for (int i = lineStart; i < lineEnd; i++) {
+      if (buf.get(i) == ',' && fieldCount < MAX_FIELDS - 1) {
+        fieldStart[fieldCount] = start;
+        fieldEnd[fieldCount++] = i;
+        start = i + 1;
+      }
+    }
+    fieldStart[fieldCount] = start;
+    fieldEnd[fieldCount++] = lineEnd;
+  }
+
+  /**
+   * The offset of the first byte after the current record, counted from the start of the input.
+   * Reading can later resume there with {@link #CsvRecordReader(String, long, long)}.
+   */
+  public long offset() {
+    return bufferOffset + pos;
+  }
+
+  /**
+   * The line number of the current record, starting at 1 for the first line of the input.
+   */
+  public long lineNumber() {
+    return lineNumber;
+  }
+
+  /**
+   * The number of fields in the current record.
+   */
+  public int fieldCount() {
+    return fieldCount;
+  }
+
+  /**
+   * Fails unless the current record has at least {@code count} fields.
+   *
+   * @param count The number of fields expected.
+   * @throws CsvFormatException If there are fewer fields.
+   */
+  public void requireFields(int count) throws CsvFormatException {
+    if (fieldCount < count) {
+      throw error("expected " + count + " fields but found " + fieldCount);
+    }
+  }
+
+  /**
+   * Decodes a field as UTF-8 text.
+   *
+   * @param i Index of the field.
+   * @return The field as a string.
+   */
+  public String fieldAsString(int i) {
+    int start = fieldStart[i];
+    int len = fieldEnd[i] - start;
+    if (buf.hasArray()) {
+      return new String(buf.array(), buf.arrayOffset() + start, len, StandardCharsets.UTF_8);
+    }
+    if (scratch.length < len) {
+      scratch = new byte[len];
+    }
+    for (int j = 0; j < len; j++) {
+      scratch[j] = buf.get(start + j);
+    }
+    return new String(scratch, 0, len, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * The length of a field in bytes.
+   *
+   * @param i Index of the field.
+   */
+  public int fieldLength(int i) {
+    return fieldEnd[i] - fieldStart[i];
+  }
+
+  /**
+   * Whether a field is made of 1 to 18 decimal digits, so that {@link #fieldAsLong(int)} will
+   * succeed on it.
+   *
+   * @param i Index of the field.
+   */
+  public boolean fieldIsDigits(int i) {
+    int start = fieldStart[i];
+    int stop = fieldEnd[i];
+    if (start == stop || stop - start > 18) {
+      return false;
+    }
+    for (int j = start; j < stop; j++) {
+      byte b = buf.get(j);
+      if (b < '0' || b > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Decodes a field as text, returning the same {@code String} instance as an earlier call for the
+   * same bytes when it is still remembered. Meant for fields with few distinct values, such as
+   * vendor names, where it saves creating a string per record.
+   *
+   * @param i Index of the field.
+   * @return The field as a string.
+   */
+  public String fieldAsInternedString(int i) {
+    int start = fieldStart[i];
+    int len = fieldEnd[i] - start;
+    int hash = 0;
+    for (int j = start; j < start + len; j++) {
+      hash = 31 * hash + buf.get(j);
+    }
+    int slot = (hash ^ (hash >>> 16)) & (INTERN_TABLE_SIZE - 1);
+    String known = interned[slot];
+    if (known != null && known.length() == len) {
+      int j = 0;
+      while (j < len && known.charAt(j) == buf.get(start + j)) {
+        j++;
+      }
+      if (j == len) {
+        return known;
+      }
+    }
+    String value = fieldAsString(i);
+    interned[slot] = value;
+    return value;
+  }
+
+  /**
+   * Parses a field made only of decimal digits, such as a card number.
+   *
+   * @param i Index of the field.
+   * @return The value of the digits.
+   * @throws CsvFormatException If the field is empty, has a non-digit, or does not fit a long.
+   */
+  public long fieldAsLong(int i) throws CsvFormatException {
+    int start = fieldStart[i];
+    int stop = fieldEnd[i];
+    if (start == stop || stop - start > 18) {
+      throw error("field " + (i + 1) + " is not a number: " + fieldAsString(i));
+    }
+    long value = 0;
+    for (int j = start; j < stop; j++) {
+      int digit = buf.get(j) - '0';
+      if (digit < 0 || digit > 9) {
+        throw error("field " + (i + 1) + " is not a number: " + fieldAsString(i));
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  /**
+   * Parses a money amount such as {@code 424.29} or {@code -3.5} into cents.
+   *
+   * @param i Index of the field.
+   * @return The amount in cents.
+   * @throws CsvFormatException If the field is not an amount with at most two decimals.
+   */
+  public long fieldAsCents(int i) throws CsvFormatException {
+    int j = fieldStart[i];
+    int stop = fieldEnd[i];
+    boolean negative = j < stop && buf.get(j) == '-';
+    if (negative || (j < stop && buf.get(j) == '+')) {
+      j++;
+    }
+
+    long cents = 0;
+    int digits = 0;
+    int decimals = -1;
+    for (; j < stop; j++) {
+      byte b = buf.get(j);
+      if (b == '.' && decimals < 0) {
+        decimals = 0;
+      } else if (b >= '0' && b <= '9' && digits < 16 && decimals < 2) {
+        cents = cents * 10 + (b - '0');
+        digits++;
+        if (decimals >= 0) {
+          decimals++;
+        }
+      } else {
+        throw error("field " + (i + 1) + " is not an amount: " + fieldAsString(i));
+      }
+    }
+    if (digits == 0) {
+      throw error("field " + (i + 1) + " is not an amount: " + fieldAsString(i));
+    }
+    for (int k = Math.max(decimals, 0); k < 2; k++) {
+      cents *= 10;
+    }
+    return negative ? -cents : cents;
+  }
+
+  /**
+   * Parses a {@code yyyy-MM-dd} date into the number of days since 1970-01-01.
+   *
+   * @param i Index of the field.
+   * @return The epoch day of the date.
+   * @throws CsvFormatException If the field is not a valid date in that format.
+   */
+  public int fieldAsEpochDay(int i) throws CsvFormatException {
+    int start = fieldStart[i];
+    if (fieldEnd[i] - start != 10) {
+      throw error("bad date format: " + fieldAsString(i));
+    }
+
+    // The same few dates come back line after line, so compare the bytes with a date decoded
+    // before; a slot is only filled with a date that decoded without error
+    long high = buf.getLong(start);
+    short low = buf.getShort(start + 8);
+    int slot = (int) (high ^ (high >>> 29) ^ low ^ (low >>> 7)) & (DATE_CACHE_SIZE - 1);
+    if (cachedEpochDay[slot] != EpochDay.NONE && cachedDateHigh[slot] == high
+        && cachedDateLow[slot] == low) {
+      return cachedEpochDay[slot];
+    }
+    int epochDay = decodeEpochDay(i, start);
+    cachedDateHigh[slot] = high;
+    cachedDateLow[slot] = low;
+    cachedEpochDay[slot] = epochDay;
+    return epochDay;
+  }
+
+  private int decodeEpochDay(int i, int start) throws CsvFormatException {
+    if (buf.get(start + 4) != '-' || buf.get(start + 7) != '-') {
+      throw error("bad date format: " + fieldAsString(i));
+    }
+    int year = digits(start, 4);
+    int month = digits(start + 5, 2);
+    int day = digits(start + 8, 2);
+    if (year < 1 || month < 1 || month > 12
+        || day < 1 || day > EpochDay.daysInMonth(year, month)) {
+      throw error("bad date format: " + fieldAsString(i));
+    }
+    return EpochDay.of(year, month, day);
+  }
+
+  private int digits(int from, int count) {
+    int value = 0;
+    for (int j = from; j < from + count; j++) {
+      int digit = buf.get(j) - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  private CsvFormatException error(String message) {
+    return new CsvFormatException(lineNumber, message);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+  }
+}
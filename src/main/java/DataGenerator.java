@@ -0,0 +1,253 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Writes synthetic accounts and transactions files in the format of {@code cards.csv} and {@code
+ * transactions.csv}, at any scale. Card activity follows a Zipf distribution, so a few hot cards
+ * see most of the transactions the way real portfolios do, and a share of the card numbers fail
+ * the Luhn check. Everything is drawn from one seed, so the same options always give the same
+ * files.
+ *
+ * <p>Options are given as {@code --name=value}:
+ * <ul>
+ * <li>{@code cards}, {@code transactionsFile}: the files to write, by default {@code
+ * cards_generated.csv} and {@code transactions_generated.csv}</li>
+ * <li>{@code accounts}, {@code transactions}: the number of rows of each file</li>
+ * <li>{@code invalidShare}: the share of card numbers failing the Luhn check, from 0 to 1</li>
+ * <li>{@code zipf}: the skew of card activity; 0 spreads transactions evenly</li>
+ * <li>{@code vendors}: a comma separated list of vendor names</li>
+ * <li>{@code from}, {@code to}: the first and last transaction date, as {@code yyyy-MM-dd}</li>
+ * <li>{@code seed}: the seed of the random numbers</li>
+ * </ul>
+ */
+public class DataGenerator {
+
+  private static final String[] FIRST_NAMES = {"Janis", "Natalie", "Denny", "Lora", "Conchita",
+      "Ricarda", "Chun", "Lavon", "Bertram", "Cesar", "Glady", "Freda", "Nichelle", "Corie",
+      "Savannah", "Kallie", "Yolanda", "Colton", "Loren", "Joann", "Alvera", "Lauralee"};
+  private static final String[] LAST_NAMES = {"Grabowsky", "Linscomb", "Powless", "Vasiloff",
+      "Mcgoogan", "Baldassano", "Protich", "Petrucco", "Metty", "Stilwagen", "Kaszton",
+      "Vanholland", "Chueng", "Emde", "Leflores", "Dew", "Placko", "Besarra", "Szynkowicz"};
+  private static final String DEFAULT_VENDORS = "Amazon,Jamba Juice,Lemon Grass,Panda Express,"
+      + "Ralph's,The Body Shop,Veggie Grill,Walmart,Whole Foods";
+
+  private String cardsFile = "cards_generated.csv";
+  private String transactionsFile = "transactions_generated.csv";
+  private int accounts = 1000;
+  private int transactions = 10000;
+  private double invalidShare = 0.1;
+  private double zipf = 1.0;
+  private String[] vendors = DEFAULT_VENDORS.split(",");
+  private LocalDate from = LocalDate.of(2017, 4, 1);
+  private LocalDate to = LocalDate.of(2017, 4, 30);
+  private long seed = 1L;
+
+  /**
+   * Writes both files.
+   *
+   * @param args Options as {@code --name=value}.
+   */
+  public static void main(String[] args) {
+    DataGenerator generator = new DataGenerator();
+    try {
+      for (String arg : args) {
+        generator.set(arg);
+      }
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    }
+
+    try {
+      long start = System.nanoTime();
+      generator.write();
+      System.out.println("Wrote " + generator.accounts + " accounts to " + generator.cardsFile
+          + " and " + generator.transactions + " transactions to " + generator.transactionsFile
+          + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    } catch (IOException e) {
+      System.err.println("There was a problem writing the data files: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Applies one {@code --name=value} option.
+   *
+   * @param option The option.
+   * @throws IllegalArgumentException If the option is unknown or its value is invalid.
+   */
+  public void set(String option) {
+    int eq = option.indexOf('=');
+    if (!option.startsWith("--") || eq < 0) {
+      throw new IllegalArgumentException("Expected --name=value but got " + option);
+    }
+    String name = option.substring(2, eq);
+    String value = option.substring(eq + 1);
+    try {
+      switch (name) {
+        case "cards":
+          cardsFile = value;
+          break;
+        case "transactionsFile":
+          transactionsFile = value;
+          break;
+        case "accounts":
+          accounts = Integer.parseInt(value);
+          break;
+        case "transactions":
+          transactions = Integer.parseInt(value);
+          break;
+        case "invalidShare":
+          invalidShare = Double.parseDouble(value);
+          break;
+        case "zipf":
+          zipf = Double.parseDouble(value);
+          break;
+        case "vendors":
+          vendors = value.split(",");
+          break;
+        case "from":
+          from = LocalDate.parse(value);
+          break;
+        case "to":
+          to = LocalDate.parse(value);
+          break;
+        case "seed":
+          seed = Long.parseLong(value);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option " + option);
+      }
+    } catch (NumberFormatException | DateTimeParseException e) {
+      throw new IllegalArgumentException("Invalid value in " + option);
+    }
+  }
+
+  /**
+   * Checks the options together, once they are all set, as some are only valid against others:
+   * {@code --from=2018-01-01} alone is after the default last date.
+   *
+   * @throws IllegalArgumentException If an option is out of range.
+   */
+  private void validate() {
+    if (accounts < 1 || transactions < 0 || invalidShare < 0 || invalidShare > 1 || zipf < 0) {
+      throw new IllegalArgumentException("Value out of range in --accounts=" + accounts
+          + " --transactions=" + transactions + " --invalidShare=" + invalidShare
+          + " --zipf=" + zipf);
+    }
+    if (to.isBefore(from)) {
+      throw new IllegalArgumentException("--to=" + to + " is before --from=" + from);
+    }
+    for (String vendor : vendors) {
+      if (vendor.trim().isEmpty()) {
+        throw new IllegalArgumentException("Empty vendor name in --vendors="
+            + String.join(",", vendors));
+      }
+    }
+  }
+
+  /**
+   * Writes the accounts file and the transactions file.
+   *
+   * @throws IOException If a file cannot be written.
+   * @throws IllegalArgumentException If the options are out of range.
+   */
+  public void write() throws IOException {
+    validate();
+    SplittableRandom random = new SplittableRandom(seed);
+    String[] cards = new String[accounts];
+    for (int i = 0; i < accounts; i++) {
+      cards[i] = cardNumber(random, random.nextDouble() >= invalidShare);
+    }
+    writeAccounts(cards, random.split());
+    writeTransactions(cards, random.split());
+  }
+
+  private void writeAccounts(String[] cards, SplittableRandom random) throws IOException {
+    try (BufferedWriter out = Files.newBufferedWriter(Paths.get(cardsFile),
+        StandardCharsets.UTF_8)) {
+      out.write("number,accountHolder,balance\n");
+      StringBuilder line = new StringBuilder(64);
+      for (String card : cards) {
+        line.setLength(0);
+        line.append(card).append(',')
+            .append(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]).append(' ')
+            .append(LAST_NAMES[random.nextInt(LAST_NAMES.length)]).append(',');
+        Money.append(line, random.nextInt(250000)).append('\n');
+        out.append(line);
+      }
+    }
+  }
+
+  private void writeTransactions(String[] cards, SplittableRandom random) throws IOException {
+    double[] activity = zipfCumulative(cards.length);
+    long firstDay = from.toEpochDay();
+    int days = (int) (to.toEpochDay() - firstDay) + 1;
+    try (BufferedWriter out = Files.newBufferedWriter(Paths.get(transactionsFile),
+        StandardCharsets.UTF_8)) {
+      out.write("transactionNumber,cardNumber,date,vendor,purchaseAmount\n");
+      StringBuilder line = new StringBuilder(96);
+      for (int i = 0; i < transactions; i++) {
+        int rank = Arrays.binarySearch(activity, random.nextDouble());
+        String card = cards[Math.min(rank < 0 ? -rank - 1 : rank, cards.length - 1)];
+        line.setLength(0);
+        line.append(i).append(',').append(card).append(',')
+            .append(LocalDate.ofEpochDay(firstDay + random.nextInt(days))).append(',')
+            .append(vendors[random.nextInt(vendors.length)]).append(',');
+        Money.append(line, 100 + random.nextInt(200000)).append('\n');
+        out.append(line);
+      }
+    }
+  }
+
+  /**
+   * The cumulative probabilities of a Zipf distribution over the cards: the card at index k is
+   * picked with a weight of 1 / (k + 1)^zipf.
+   */
+  private double[] zipfCumulative(int n) {
+    double[] cumulative = new double[n];
+    double total = 0;
+    for (int k = 0; k < n; k++) {
+      total += 1 / Math.pow(k + 1, zipf);
+      cumulative[k] = total;
+    }
+    for (int k = 0; k < n; k++) {
+      cumulative[k] /= total;
+    }
+    return cumulative;
+  }
+
+  /**
+   * A random 16 digit card number.
+   *
+   * @param random The source of random digits.
+   * @param valid Whether the number passes the Luhn check.
+   */
+  private static String cardNumber(SplittableRandom random, boolean valid) {
+    char[] digits = new char[16];
+    int sum = 0;
+    for (int i = 0; i < 15; i++) {
+      int digit = random.nextInt(10);
+      digits[i] = (char) ('0' + digit);
+      // Digits at an odd distance from the check digit are doubled
+      int weighted = (15 - i) % 2 == 1 ? digit * 2 : digit;
+      sum += weighted >= 10 ? weighted - 9 : weighted;
+    }
+    int check = (10 - sum % 10) % 10;
+    if (!valid) {
+      check = (check + 1 + random.nextInt(9)) % 10;
+    }
+    digits[15] = (char) ('0' + check);
+    return new String(digits);
+  }
+}
@@ -0,0 +1,102 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * Helpers for dates held as an epoch day, the number of days since 1970-01-01. An epoch day fits
+ * in an {@code int}, which lets transactions be stored in primitive columns.
+ */
+public final class EpochDay {
+
+  /**
+   * Stands for a missing date.
+   */
+  public static final int NONE = Integer.MIN_VALUE;
+
+  // Midnights converted recently, by epoch day; a monthly file only holds a few distinct days
+  private static final int MIDNIGHT_CACHE_SIZE = 64;
+  private static final Midnight[] MIDNIGHTS = new Midnight[MIDNIGHT_CACHE_SIZE];
+
+  private EpochDay() {
+  }
+
+  /**
+   * Days since 1970-01-01 of a date in the proleptic Gregorian calendar.
+   *
+   * @param year The year, from 1.
+   * @param month The month, from 1 to 12.
+   * @param day The day of the month, from 1.
+   * @return The epoch day of the date.
+   */
+  public static int of(int year, int month, int day) {
+    // Count years from March so the leap day falls at the end of the year
+    int y = month <= 2 ? year - 1 : year;
+    int era = y / 400;
+    int yearOfEra = y - era * 400;
+    int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  /**
+   * The number of days in a month of the proleptic Gregorian calendar.
+   */
+  public static int daysInMonth(int year, int month) {
+    if (month == 2) {
+      boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+      return leap ? 29 : 28;
+    }
+    return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+  }
+
+  /**
+   * Midnight of the given day in the default time zone, as a {@code yyyy-MM-dd} date formatter
+   * would produce.
+   *
+   * @param epochDay An epoch day, or {@link #NONE}.
+   * @return A new Date, or null for {@link #NONE}.
+   */
+  public static Date toDate(int epochDay) {
+    if (epochDay == NONE) {
+      return null;
+    }
+    int slot = epochDay & (MIDNIGHT_CACHE_SIZE - 1);
+    // Threads may race to fill a slot; either entry is right, as its fields are final
+    Midnight midnight = MIDNIGHTS[slot];
+    if (midnight == null || midnight.epochDay != epochDay) {
+      midnight = new Midnight(epochDay, LocalDate.ofEpochDay(epochDay)
+          .atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli());
+      MIDNIGHTS[slot] = midnight;
+    }
+    return new Date(midnight.millis);
+  }
+
+  /**
+   * An epoch day with its midnight in the default time zone. The time zone is read when the entry
+   * is made, so a program that changes its default time zone must not rely on older entries.
+   */
+  private static final class Midnight {
+    final int epochDay;
+    final long millis;
+
+    Midnight(int epochDay, long millis) {
+      this.epochDay = epochDay;
+      this.millis = millis;
+    }
+  }
+
+  /**
+   * The day of a date in the default time zone.
+   *
+   * @param date A date, or null.
+   * @return The epoch day of the date, or {@link #NONE} for null.
+   */
+  public static int fromDate(Date date) {
+    if (date == null) {
+      return NONE;
+    }
+    return (int) Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault())
+        .toLocalDate().toEpochDay();
+  }
+}
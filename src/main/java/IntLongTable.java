@@ -0,0 +1,142 @@
+import java.util.Arrays;
+
+/**
+ * Sums of {@code long} amounts by {@code int} key, such as cents by vendor id or by epoch day, in
+ * an open-addressing table. Adding to a key already in the table allocates nothing, and an empty
+ * table holds no arrays at all. {@link Integer#MIN_VALUE} cannot be used as a key.
+ *
+ * <p>The table is not thread safe.
+ */
+public class IntLongTable {
+
+  private static final int EMPTY = Integer.MIN_VALUE;
+  private static final int[] NO_KEYS = new int[0];
+  private static final long[] NO_VALUES = new long[0];
+
+  private int[] keys = NO_KEYS;
+  private long[] values = NO_VALUES;
+  private int size;
+
+  /**
+   * Adds an amount to the sum of a key, which starts at 0.
+   *
+   * @param key The key, other than {@link Integer#MIN_VALUE}.
+   * @param amount The amount to add.
+   */
+  public void add(int key, long amount) {
+    if ((size + 1) * 4 > keys.length * 3) {
+      grow();
+    }
+    int mask = keys.length - 1;
+    for (int k = mix(key) & mask; ; k = (k + 1) & mask) {
+      if (keys[k] == key) {
+        values[k] += amount;
+        return;
+      }
+      if (keys[k] == EMPTY) {
+        keys[k] = key;
+        values[k] = amount;
+        size++;
+        return;
+      }
+    }
+  }
+
+  /**
+   * The sum of a key.
+   *
+   * @param key The key.
+   * @return The sum, or 0 if nothing was added to the key.
+   */
+  public long get(int key) {
+    if (size == 0) {
+      return 0;
+    }
+    int mask = keys.length - 1;
+    for (int k = mix(key) & mask; keys[k] != EMPTY; k = (k + 1) & mask) {
+      if (keys[k] == key) {
+        return values[k];
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * The number of keys in the table.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The number of slots, for walking the table with {@link #isUsed(int)}, {@link #keyAt(int)} and
+   * {@link #valueAt(int)}.
+   */
+  public int capacity() {
+    return keys.length;
+  }
+
+  /**
+   * Whether a slot holds a key.
+   */
+  public boolean isUsed(int slot) {
+    return keys[slot] != EMPTY;
+  }
+
+  /**
+   * The key in a used slot.
+   */
+  public int keyAt(int slot) {
+    return keys[slot];
+  }
+
+  /**
+   * The sum in a used slot.
+   */
+  public long valueAt(int slot) {
+    return values[slot];
+  }
+
+  /**
+   * Removes every key, keeping the arrays for reuse.
+   */
+  public void clear() {
+    if (size > 0) {
+      Arrays.fill(keys, EMPTY);
+      Arrays.fill(values, 0L);
+      size = 0;
+    }
+  }
+
+  /**
+   * A copy of the table.
+   */
+  public IntLongTable copy() {
+    IntLongTable copy = new IntLongTable();
+    if (size > 0) {
+      copy.keys = keys.clone();
+      copy.values = values.clone();
+      copy.size = size;
+    }
+    return copy;
+  }
+
+  private void grow() {
+    int[] oldKeys = keys;
+    long[] oldValues = values;
+    keys = new int[Math.max(8, oldKeys.length * 2)];
+    Arrays.fill(keys, EMPTY);
+    values = new long[keys.length];
+    size = 0;
+    for (int k = 0; k < oldKeys.length; k++) {
+      if (oldKeys[k] != EMPTY) {
+        add(oldKeys[k], oldValues[k]);
+      }
+    }
+  }
+
+  private static int mix(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
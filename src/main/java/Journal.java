@@ -0,0 +1,575 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of everything that changes the state of the cards: each authorization,
+ * approved or denied, and each month closed. Replaying the journal over the accounts file rebuilds
+ * the cards as they were, and the journal itself is a record of every decision made.
+ *
+ * <p>Appending only copies the record into a memory buffer. A committer thread writes out what has
+ * accumulated and forces it to disk once per commit interval, so many records share one {@code
+ * fsync} and durability does not cap throughput. {@link #sync()} waits until everything appended
+ * so far is on disk. The state is guarded by a lock rather than the monitor, so that virtual
+ * threads waiting on the committer give up their carrier thread.
+ *
+ * <p>Each record is framed by its length and a CRC-32 of its contents, so a record torn by a crash
+ * is recognized and replay stops at the last complete record. Opening a journal keeps every
+ * complete record already in it and appends after them, so a run cut short by a crash is resumed
+ * by replaying its journal over the accounts file and carrying on with the same journal.
+ */
+public class Journal implements Closeable {
+
+  private static final byte APPROVED = 1;
+  private static final byte DENIED = 2;
+  private static final byte CLOSE_MONTH = 3;
+
+  // Length and CRC of each record
+  private static final int FRAME_SIZE = 8;
+
+  private static final int BUFFER_SIZE = 1 << 20;
+  private static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 10;
+
+  private final FileChannel channel;
+  private final long commitIntervalNanos;
+  private final Thread committer;
+
+  // Records appended since the last commit, and the buffer being written by the committer
+  private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+  private ByteBuffer spare = ByteBuffer.allocate(BUFFER_SIZE);
+  private ByteBuffer scratch = ByteBuffer.allocate(256);
+  private final CRC32 crc = new CRC32();
+
+  // Guards everything below, and the buffers and scratch state above
+  private final ReentrantLock lock = new ReentrantLock();
+  // Signalled whenever records are appended, committed or the journal closes
+  private final Condition changed = lock.newCondition();
+
+  // Encoded vendor names by VendorTable id
+  private byte[][] vendorBytes = new byte[64][];
+
+  // Counts of records appended and of records on disk
+  private long appended;
+  private long durable;
+
+  // Set by sync() so that the committer commits without waiting for more records
+  private boolean syncRequested;
+
+  private boolean closed;
+  private IOException failure;
+
+  private Journal(String filename, long commitIntervalMillis) throws IOException {
+    long length = Files.exists(Paths.get(filename)) ? read(filename, null).length : 0;
+    channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+    // A record torn by a crash is cut off, or replay would stop there and miss the records after it
+    channel.truncate(length);
+    channel.position(length);
+    commitIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(commitIntervalMillis, 0));
+    committer = new Thread(this::commitLoop, "journal-committer");
+    committer.setDaemon(true);
+  }
+
+  /**
+   * Opens a journal for appending, creating the file if it does not exist. The records already
+   * in the file are kept, less a torn record at its end; a caller carrying on with a journal
+   * should first {@link #replay(String, AccountManager)} it.
+   *
+   * @param filename Name of the journal file.
+   * @return The journal, with its committer running.
+   * @throws IOException If the file cannot be opened.
+   */
+  public static Journal open(String filename) throws IOException {
+    return open(filename, DEFAULT_COMMIT_INTERVAL_MILLIS);
+  }
+
+  /**
+   * Opens a journal for appending, creating the file if it does not exist. The records already
+   * in the file are kept, less a torn record at its end; a caller carrying on with a journal
+   * should first {@link #replay(String, AccountManager)} it.
+   *
+   * @param filename Name of the journal file.
+   * @param commitIntervalMillis The longest time records wait in memory before they are committed.
+   * @return The journal, with its committer running.
+   * @throws IOException If the file cannot be opened.
+   */
+  public static Journal open(String filename, long commitIntervalMillis) throws IOException {
+    Journal journal = new Journal(filename, commitIntervalMillis);
+    // Started only once the journal is fully built, so the committer never sees it half done
+    journal.committer.start();
+    return journal;
+  }
+
+  /**
+   * Appends the outcome of authorizing a transaction.
+   *
+   * @param t The transaction.
+   * @param approved Whether it was approved; if not, its denial reason is recorded.
+   * @throws IOException If the journal has failed or is closed.
+   */
+  public void recordTransaction(Transaction t, boolean approved) throws IOException {
+    lock.lock();
+    try {
+      begin(approved ? APPROVED : DENIED);
+      putNumber(t.getTransactionNumber());
+      putNumber(t.getCardNumber());
+      putDetails(t.getEpochDay(), t.getPurchaseCents(),
+          VendorTable.idOf(t.getVendor()));
+      if (!approved) {
+        putString(t.getDenialReason());
+      }
+      commitRecord();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Appends the outcome of authorizing a record of a columnar batch.
+   *
+   * @param batch The batch holding the record.
+   * @param i Index of the record.
+   * @param approved Whether it was approved; if not, its denial reason is recorded.
+   * @throws IOException If the journal has failed or is closed.
+   */
+  public void recordTransaction(TransactionBatch batch, int i, boolean approved)
+      throws IOException {
+    lock.lock();
+    try {
+      begin(approved ? APPROVED : DENIED);
+      if (batch.transactionNumberDigits(i) > 0) {
+        putNumber(batch.transactionNumberDigits(i), batch.transactionNumberValue(i));
+      } else {
+        putNumber(batch.transactionNumber(i));
+      }
+      if (batch.isNumericCard(i)) {
+        putNumber(batch.cardNumberDigits(i), batch.cardNumberValue(i));
+      } else {
+        putNumber(batch.cardNumber(i));
+      }
+      putDetails(batch.epochDay(i), batch.amountCents(i), batch.vendorId(i));
+      if (!approved) {
+        putString(batch.denialReason(i));
+      }
+      commitRecord();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Appends the closing of a card's month.
+   *
+   * @param cardNumber The card whose month was closed.
+   * @throws IOException If the journal has failed or is closed.
+   */
+  public void recordCloseMonth(String cardNumber) throws IOException {
+    lock.lock();
+    try {
+      begin(CLOSE_MONTH);
+      putNumber(cardNumber);
+      commitRecord();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Starts encoding a record into the scratch buffer.
+   */
+  private void begin(byte type) throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+    if (closed) {
+      throw new IOException("Journal is closed");
+    }
+    scratch.clear();
+    scratch.put(type);
+  }
+
+  /**
+   * Frames the record in the scratch buffer and moves it into the pending buffer.
+   */
+  private void commitRecord() throws IOException {
+    scratch.flip();
+    crc.reset();
+    crc.update(scratch);
+    scratch.rewind();
+    int size = FRAME_SIZE + scratch.remaining();
+    if (size > pending.capacity()) {
+      throw new IOException("Journal record of " + size + " bytes is too large");
+    }
+    while (pending.remaining() < size) {
+      // Wait for the committer to take the full buffer
+      changed.signalAll();
+      try {
+        changed.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while appending to the journal", e);
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+    pending.putInt(scratch.remaining()).putInt((int) crc.getValue()).put(scratch);
+    appended++;
+    if (pending.position() >= pending.capacity() / 2) {
+      changed.signalAll();
+    }
+  }
+
+  /**
+   * Makes sure the scratch buffer has room for {@code bytes} more bytes.
+   */
+  private void ensureScratch(int bytes) {
+    if (scratch.remaining() < bytes) {
+      ByteBuffer bigger = ByteBuffer.allocate(Math.max(scratch.capacity() * 2,
+          scratch.position() + bytes));
+      scratch.flip();
+      bigger.put(scratch);
+      scratch = bigger;
+    }
+  }
+
+  private void putNumber(int digits, long value) {
+    ensureScratch(9);
+    scratch.put((byte) digits).putLong(value);
+  }
+
+  /**
+   * Writes a card or transaction number as a long when it is a plain number, as text otherwise.
+   */
+  private void putNumber(String number) {
+    byte digits = TransactionBatch.digitCount(number);
+    if (digits > 0) {
+      putNumber(digits, Long.parseLong(number));
+    } else {
+      ensureScratch(1);
+      scratch.put((byte) 0);
+      putString(number);
+    }
+  }
+
+  private void putDetails(int epochDay, long cents, int vendorId) {
+    ensureScratch(12);
+    scratch.putInt(epochDay).putLong(cents);
+    if (vendorId == VendorTable.NONE) {
+      putBytes(null);
+      return;
+    }
+    if (vendorId >= vendorBytes.length) {
+      vendorBytes = Arrays.copyOf(vendorBytes, Math.max(vendorBytes.length * 2, vendorId + 1));
+    }
+    if (vendorBytes[vendorId] == null) {
+      vendorBytes[vendorId] = VendorTable.nameOf(vendorId).getBytes(StandardCharsets.UTF_8);
+    }
+    putBytes(vendorBytes[vendorId]);
+  }
+
+  private void putString(String s) {
+    putBytes(s == null ? null : s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void putBytes(byte[] bytes) {
+    ensureScratch(4 + (bytes == null ? 0 : bytes.length));
+    if (bytes == null) {
+      scratch.putInt(-1);
+    } else {
+      scratch.putInt(bytes.length).put(bytes);
+    }
+  }
+
+  /**
+   * Waits until every record appended so far is on disk.
+   *
+   * @throws IOException If the journal has failed.
+   */
+  public void sync() throws IOException {
+    lock.lock();
+    try {
+      long target = appended;
+      syncRequested = true;
+      changed.signalAll();
+      while (durable < target && failure == null) {
+        changed.await();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while syncing the journal", e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void commitLoop() {
+    while (true) {
+      ByteBuffer batch;
+      long batchEnd;
+      boolean last;
+      lock.lock();
+      try {
+        // Wait for records, then give more of them a chance to join the same commit
+        while (pending.position() == 0 && !closed) {
+          changed.await();
+        }
+        long left = commitIntervalNanos;
+        while (!closed && !syncRequested && pending.position() < pending.capacity() / 2
+            && left > 0) {
+          left = changed.awaitNanos(left);
+        }
+      } catch (InterruptedException e) {
+        closed = true;
+      } finally {
+        syncRequested = false;
+        batch = pending;
+        pending = spare;
+        spare = null;
+        batchEnd = appended;
+        last = closed;
+        lock.unlock();
+      }
+
+      IOException error = null;
+      try {
+        batch.flip();
+        while (batch.hasRemaining()) {
+          channel.write(batch);
+        }
+        channel.force(false);
+      } catch (IOException e) {
+        error = e;
+      }
+      batch.clear();
+
+      lock.lock();
+      try {
+        spare = batch;
+        if (error != null && failure == null) {
+          failure = error;
+        }
+        if (error == null) {
+          durable = batchEnd;
+        }
+        changed.signalAll();
+        if (failure != null || (last && pending.position() == 0)) {
+          return;
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Commits every record appended so far and closes the file.
+   *
+   * @throws IOException If a record could not be written.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    try {
+      committer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while closing the journal", e);
+    } finally {
+      channel.close();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * The cards rebuilt by {@link #replay(String, AccountManager)}, and what the journal held.
+   */
+  public static class ReplaySummary {
+    long approved;
+    long denied;
+    long closedMonths;
+    long unknownCards;
+    boolean torn;
+    String lastTransactionNumber;
+
+    // Bytes of complete records at the start of the file
+    long length;
+
+    public long getApproved() {
+      return approved;
+    }
+
+    public long getDenied() {
+      return denied;
+    }
+
+    public long getClosedMonths() {
+      return closedMonths;
+    }
+
+    /**
+     * The number of records naming a card that the AccountManager does not have.
+     */
+    public long getUnknownCards() {
+      return unknownCards;
+    }
+
+    /**
+     * Whether the journal ended with an incomplete record, as left by a crash while writing.
+     */
+    public boolean isTorn() {
+      return torn;
+    }
+
+    /**
+     * The number of the last transaction in the journal, approved or denied, or null if it has
+     * none.
+     */
+    public String getLastTransactionNumber() {
+      return lastTransactionNumber;
+    }
+  }
+
+  /**
+   * Applies a journal to the cards of an AccountManager, normally just loaded from the accounts
+   * file. Approved transactions are added to their cards as they were recorded, without checking
+   * limits again, and closed months are closed again; denied transactions change nothing and are
+   * only counted. Replay stops at the first incomplete or corrupt record.
+   *
+   * @param filename Name of the journal file.
+   * @param manager The AccountManager holding the cards.
+   * @return What the journal held.
+   * @throws IOException If the journal cannot be read.
+   */
+  public static ReplaySummary replay(String filename, AccountManager manager) throws IOException {
+    return read(filename, manager);
+  }
+
+  /**
+   * Reads the records of a journal, applying them to the AccountManager if it is not null.
+   */
+  private static ReplaySummary read(String filename, AccountManager manager) throws IOException {
+    ReplaySummary summary = new ReplaySummary();
+    CRC32 check = new CRC32();
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(filename), 1 << 16))) {
+      byte[] record = new byte[256];
+      while (true) {
+        int first = in.read();
+        if (first < 0) {
+          break;
+        }
+        int length;
+        int expected;
+        try {
+          length = first << 24 | in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8
+              | in.readUnsignedByte();
+          expected = in.readInt();
+          // No record is larger than the buffer it was appended to; a larger length is garbage
+          if (length <= 0 || length > BUFFER_SIZE - FRAME_SIZE) {
+            summary.torn = true;
+            break;
+          }
+          if (length > record.length) {
+            record = new byte[Math.max(length, record.length * 2)];
+          }
+          in.readFully(record, 0, length);
+        } catch (EOFException e) {
+          // The journal ends part way through a record
+          summary.torn = true;
+          break;
+        }
+        check.reset();
+        check.update(record, 0, length);
+        if ((int) check.getValue() != expected) {
+          summary.torn = true;
+          break;
+        }
+        if (manager != null) {
+          apply(ByteBuffer.wrap(record, 0, length), manager, summary);
+        }
+        summary.length += FRAME_SIZE + length;
+      }
+    }
+    return summary;
+  }
+
+  private static void apply(ByteBuffer in, AccountManager manager, ReplaySummary summary) {
+    byte type = in.get();
+    if (type == CLOSE_MONTH) {
+      CreditCard card = manager.accounts.get(getNumber(in));
+      if (card == null) {
+        summary.unknownCards++;
+      } else {
+        card.closeMonth();
+      }
+      summary.closedMonths++;
+      return;
+    }
+
+    String transactionNumber = getNumber(in);
+    String cardNumber = getNumber(in);
+    summary.lastTransactionNumber = transactionNumber;
+    int epochDay = in.getInt();
+    long cents = in.getLong();
+    String vendor = getString(in);
+    if (type == DENIED) {
+      summary.denied++;
+      return;
+    }
+    summary.approved++;
+    CreditCard card = manager.accounts.get(cardNumber);
+    if (card == null) {
+      summary.unknownCards++;
+      return;
+    }
+    card.replayApproved(new Transaction(transactionNumber, cardNumber, epochDay, vendor, cents));
+  }
+
+  private static String getNumber(ByteBuffer in) {
+    int digits = in.get();
+    if (digits > 0) {
+      return TransactionBatch.digitsToString(in.getLong(), digits);
+    }
+    return getString(in);
+  }
+
+  private static String getString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) {
+      return null;
+    }
+    String s = new String(in.array(), in.arrayOffset() + in.position(), length,
+        StandardCharsets.UTF_8);
+    in.position(in.position() + length);
+    return s;
+  }
+}
@@ -0,0 +1,46 @@
+import java.io.IOException;
+
+/**
+ * Rebuilds the cards of a run from the accounts file and the {@link Journal} the run wrote, then
+ * prints what the journal held. With a third argument, the statements of the rebuilt cards are
+ * written to that file.
+ */
+public class JournalReplay {
+
+  /**
+   * Replays a journal.
+   *
+   * @param args The accounts file, the journal file and, optionally, a statements file to write.
+   */
+  public static void main(String[] args) {
+    if (args.length < 2) {
+      System.err.println("Usage: JournalReplay <accounts file> <journal file> [statements file]");
+      System.exit(1);
+    }
+
+    AccountManager accountManager = new AccountManager();
+    accountManager.loadAccounts(args[0]);
+    try {
+      long start = System.nanoTime();
+      Journal.ReplaySummary summary = Journal.replay(args[1], accountManager);
+      System.out.println("Replayed " + summary.getApproved() + " approved and "
+          + summary.getDenied() + " denied transactions and " + summary.getClosedMonths()
+          + " closed months in " + (System.nanoTime() - start) / 1000000 + " ms");
+      if (summary.getUnknownCards() > 0) {
+        System.out.println(summary.getUnknownCards() + " records name cards that are not in "
+            + args[0]);
+      }
+      if (summary.isTorn()) {
+        System.err.println("The journal ends with an incomplete record, which was ignored");
+      }
+    } catch (IOException e) {
+      System.err.println("There was a problem reading the journal file");
+      System.exit(1);
+    }
+
+    if (args.length > 2) {
+      System.out.println("Writing statements to " + args[2] + " ...");
+      accountManager.generateStatements(args[2]);
+    }
+  }
+}
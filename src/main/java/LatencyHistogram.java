@@ -0,0 +1,138 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds that many threads can record into at once. Like an HDR
+ * histogram, it keeps a fixed set of log-linear buckets: every power of two is cut into {@link
+ * #SUB_BUCKETS} equal buckets, so any recorded value is known to within about 3% whatever its
+ * magnitude, and recording is one array increment with no allocation.
+ *
+ * <p>Most durations of a phase fall in the same few buckets, so the buckets are striped: each
+ * thread counts into one of several copies of them, picked by the thread, and readers add the
+ * copies up. Threads on different cores then rarely increment the same cache line.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  // Values below SUB_BUCKETS get a bucket each; above, each power of two gets SUB_BUCKETS buckets
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  // Copies of the buckets, a power of two up to 16 that covers the cores
+  private static final int STRIPES = Math.min(16,
+      Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)));
+
+  // The buckets of stripe s start at s * BUCKETS, far enough apart not to share cache lines
+  private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+  /**
+   * Records a duration.
+   *
+   * @param nanos The duration in nanoseconds; a negative duration is recorded as 0.
+   */
+  public void record(long nanos) {
+    nanos = Math.max(nanos, 0L);
+    counts.incrementAndGet(stripe() * BUCKETS + bucketOf(nanos));
+    total.add(nanos);
+    max.accumulate(nanos);
+  }
+
+  /**
+   * The number of durations recorded.
+   */
+  public long count() {
+    long count = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * The sum of the durations recorded, in nanoseconds.
+   */
+  public long total() {
+    return total.sum();
+  }
+
+  /**
+   * The longest duration recorded, in nanoseconds.
+   */
+  public long max() {
+    return max.get();
+  }
+
+  /**
+   * The duration below which a given share of the recorded durations fall.
+   *
+   * @param percentile The share, from 0 to 100.
+   * @return The duration in nanoseconds, as the middle of its bucket, or 0 if nothing was recorded.
+   */
+  public long percentile(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      long n = counts.get(i);
+      snapshot[i % BUCKETS] += n;
+      count += n;
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100) / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(lowestValueOf(i) + (bucketWidthOf(i) - 1) / 2, max());
+      }
+    }
+    return max();
+  }
+
+  /**
+   * Forgets every duration recorded.
+   */
+  public void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0L);
+    }
+    total.reset();
+    max.reset();
+  }
+
+  // The stripe of the calling thread, which stays the same for the life of the thread
+  private static int stripe() {
+    int h = System.identityHashCode(Thread.currentThread()) * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & (STRIPES - 1);
+  }
+
+  private static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  private static long lowestValueOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long subBucket = bucket % SUB_BUCKETS;
+    return (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+  }
+
+  private static long bucketWidthOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return 1;
+    }
+    return 1L << (bucket / SUB_BUCKETS - 1);
+  }
+}
@@ -0,0 +1,181 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Parses a transactions file on several cores. The file is memory mapped, cut at line boundaries
+ * into chunks, and each chunk is parsed into a columnar {@link TransactionBatch} on its own
+ * fork-join worker. The batches are handed on in file order, so together they hold exactly the
+ * records a {@link TransactionReader} would produce. Only a few chunks ahead of the one being
+ * handed on are parsed at a time, so a file of any size takes a bounded amount of heap.
+ */
+public class MappedTransactionParser {
+
+  // Below this there is more to lose in task overhead than to gain in parallelism
+  private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+  // Above this a chunk is cut again, however few cores parse it, to bound the heap its batch takes
+  private static final long MAX_BATCH_CHUNK_SIZE = 8L << 20;
+
+  /**
+   * The outcome of parsing one chunk of the file.
+   */
+  private static class Chunk {
+    final TransactionBatch batch = new TransactionBatch();
+    final ArrayList<CsvFormatException> errors = new ArrayList<>();
+    long lines;
+  }
+
+  private MappedTransactionParser() {
+  }
+
+  /**
+   * Reads all the transactions of a file, parsing up to {@code parallelism} chunks at once.
+   * Malformed records are reported on {@code System.err} with their line number and skipped. The
+   * whole file is held in the list; {@link #parse(String, int, Consumer)} holds a few chunks.
+   *
+   * @param transactionsFilename Name of transactions data file
+   * @param parallelism The number of chunks to parse in parallel; less than 1 parses on one.
+   * @return The transactions in the order they appear in the file.
+   * @throws IOException If the file cannot be read.
+   */
+  public static ArrayList<Transaction> parse(String transactionsFilename, int parallelism)
+      throws IOException {
+    ArrayList<Transaction> transactions = new ArrayList<>();
+    parse(transactionsFilename, parallelism, batch -> transactions.addAll(batch.toTransactions()));
+    return transactions;
+  }
+
+  /**
+   * Reads the transactions of a file a chunk at a time, parsing up to {@code parallelism} chunks
+   * at once, and hands each chunk to {@code sink} in file order, on the calling thread. Malformed
+   * records are reported on {@code System.err} with their line number and skipped, just before the
+   * chunk they are in is handed on. A batch is no longer used by the parser once handed on.
+   *
+   * @param transactionsFilename Name of transactions data file
+   * @param parallelism The number of chunks to parse in parallel; less than 1 parses on one.
+   * @param sink Receives the records of each chunk.
+   * @throws IOException If the file cannot be read.
+   */
+  public static void parse(String transactionsFilename, int parallelism,
+      Consumer<TransactionBatch> sink) throws IOException {
+    parallelism = Math.max(1, parallelism);
+    try (FileChannel channel = new FileInputStream(transactionsFilename).getChannel()) {
+      long[] bounds = split(channel, parallelism);
+
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      // Chunks parsed ahead: one for each worker, and the one being handed on
+      ArrayDeque<Future<Chunk>> parsed = new ArrayDeque<>();
+      int window = parallelism + 1;
+      try {
+        int next = 0;
+        // Line 1 is the header
+        long firstLine = 2;
+        while (next + 1 < bounds.length || !parsed.isEmpty()) {
+          while (next + 1 < bounds.length && parsed.size() < window) {
+            long start = bounds[next];
+            long size = bounds[next + 1] - start;
+            parsed.add(pool.submit(
+                () -> parseChunk(channel.map(FileChannel.MapMode.READ_ONLY, start, size))));
+            next++;
+          }
+          Chunk chunk = parsed.remove().get();
+          Metrics.count(Metrics.Counter.MALFORMED_RECORDS, chunk.errors.size());
+          for (CsvFormatException e : chunk.errors) {
+            System.err.println("Skipping transaction at line "
+                + (e.getLineNumber() + firstLine - 1) + ": " + e.getReason());
+          }
+          firstLine += chunk.lines;
+          sink.accept(chunk.batch);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while parsing " + transactionsFilename, e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof UncheckedIOException) {
+          throw ((UncheckedIOException) cause).getCause();
+        }
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        throw new IOException("Could not parse " + transactionsFilename, cause);
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+  }
+
+  private static Chunk parseChunk(MappedByteBuffer data) throws IOException {
+    long start = Metrics.start();
+    Chunk chunk = new Chunk();
+    // Line numbers are relative to the chunk until all the chunks before it are counted
+    CsvRecordReader records = new CsvRecordReader(data, 1);
+    chunk.batch.readFrom(records, Integer.MAX_VALUE, chunk.errors::add);
+    chunk.lines = records.lineNumber();
+    Metrics.stop(Metrics.Phase.PARSE, start, chunk.batch.size());
+    return chunk;
+  }
+
+  /**
+   * Cuts the records after the header line into roughly equal chunks that each end on a line
+   * boundary.
+   *
+   * @return The start offset of each chunk followed by the end of the file.
+   */
+  private static long[] split(FileChannel channel, int parallelism) throws IOException {
+    long size = channel.size();
+    long dataStart = nextLineStart(channel, 0);
+    long dataSize = size - dataStart;
+
+    long count = Math.max(parallelism,
+        (dataSize + MAX_BATCH_CHUNK_SIZE - 1) / MAX_BATCH_CHUNK_SIZE);
+    count = Math.max(1, Math.min(count, (dataSize + MIN_CHUNK_SIZE - 1) / MIN_CHUNK_SIZE));
+
+    ArrayList<Long> bounds = new ArrayList<>();
+    bounds.add(dataStart);
+    for (long i = 1; i < count; i++) {
+      long bound = nextLineStart(channel, dataStart + dataSize * i / count);
+      if (bound > bounds.get(bounds.size() - 1) && bound < size) {
+        bounds.add(bound);
+      }
+    }
+    bounds.add(size);
+
+    long[] result = new long[bounds.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = bounds.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * The offset just past the first newline at or after {@code from}, or the end of the file.
+   */
+  private static long nextLineStart(FileChannel channel, long from) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(4096);
+    long offset = from;
+    while (true) {
+      buf.clear();
+      int n = channel.read(buf, offset);
+      if (n <= 0) {
+        return channel.size();
+      }
+      for (int i = 0; i < n; i++) {
+        if (buf.get(i) == '\n') {
+          return offset + i + 1;
+        }
+      }
+      offset += n;
+    }
+  }
+}
@@ -0,0 +1,413 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+
+/**
+ * Counts what the accounts, transactions and statements code does, and times its phases. Counters
+ * are striped {@link LongAdder}s and each phase has a {@link LatencyHistogram}, so many threads
+ * can record at once without contending on a single variable.
+ *
+ * <p>Metrics are off by default. While they are off, every recording method returns after reading
+ * a single flag, so the hot paths pay next to nothing for being instrumented. What was recorded
+ * is handed to a {@link Reporter}: a log line, a file dump or a JMX MBean.
+ */
+public final class Metrics {
+
+  /**
+   * The events that are counted.
+   */
+  public enum Counter {
+    ACCOUNTS_LOADED("accountsLoaded"),
+    INVALID_ACCOUNTS("invalidAccounts"),
+    MALFORMED_RECORDS("malformedRecords"),
+    TRANSACTIONS("transactions"),
+    APPROVED("approved"),
+    UNKNOWN_ACCOUNT("unknownAccount"),
+    INVALID_CARD_NUMBER("deniedInvalidCardNumber"),
+    LIMIT_EXCEEDED("deniedLimitExceeded"),
+    INCORRECT_ACCOUNT("deniedIncorrectAccount"),
+    VELOCITY_EXCEEDED("deniedVelocityExceeded"),
+    STATEMENTS("statements");
+
+    private final String key;
+
+    Counter(String key) {
+      this.key = key;
+    }
+
+    public String getKey() {
+      return key;
+    }
+  }
+
+  /**
+   * The timed phases of a run. Each phase is timed in spans: the whole file for loading accounts,
+   * one batch of records for parsing, one transaction for authorizing and one card for writing
+   * statements.
+   */
+  public enum Phase {
+    LOAD("load"),
+    PARSE("parse"),
+    AUTHORIZE("authorize"),
+    STATEMENTS("statements");
+
+    private final String key;
+
+    Phase(String key) {
+      this.key = key;
+    }
+
+    public String getKey() {
+      return key;
+    }
+  }
+
+  /**
+   * Something that publishes the values of a {@link Snapshot}.
+   */
+  public interface Reporter {
+    void report(Snapshot snapshot) throws IOException;
+  }
+
+  private static volatile boolean enabled;
+
+  private static final LongAdder[] COUNTERS = new LongAdder[Counter.values().length];
+  private static final LongAdder[] ITEMS = new LongAdder[Phase.values().length];
+  private static final LatencyHistogram[] SPANS = new LatencyHistogram[Phase.values().length];
+
+  static {
+    for (int i = 0; i < COUNTERS.length; i++) {
+      COUNTERS[i] = new LongAdder();
+    }
+    for (int i = 0; i < SPANS.length; i++) {
+      ITEMS[i] = new LongAdder();
+      SPANS[i] = new LatencyHistogram();
+    }
+  }
+
+  private Metrics() {
+  }
+
+  /**
+   * Whether metrics are being recorded.
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Turns recording on or off. Values recorded so far are kept; see {@link #reset()}.
+   */
+  public static void setEnabled(boolean on) {
+    enabled = on;
+  }
+
+  /**
+   * Clears every counter and histogram.
+   */
+  public static void reset() {
+    for (LongAdder counter : COUNTERS) {
+      counter.reset();
+    }
+    for (int i = 0; i < SPANS.length; i++) {
+      ITEMS[i].reset();
+      SPANS[i].reset();
+    }
+  }
+
+  /**
+   * Counts one event.
+   */
+  public static void count(Counter counter) {
+    if (enabled) {
+      COUNTERS[counter.ordinal()].increment();
+    }
+  }
+
+  /**
+   * Counts several events at once.
+   */
+  public static void count(Counter counter, long n) {
+    if (enabled) {
+      COUNTERS[counter.ordinal()].add(n);
+    }
+  }
+
+  /**
+   * Starts timing a span.
+   *
+   * @return The start time to pass to {@link #stop(Phase, long, long)}, or 0 when disabled.
+   */
+  public static long start() {
+    return enabled ? System.nanoTime() : 0L;
+  }
+
+  /**
+   * Ends a span started by {@link #start()} and records it in its phase.
+   *
+   * @param phase The phase the span belongs to.
+   * @param start The value returned by {@link #start()}.
+   * @param items The number of records, transactions or statements handled in the span.
+   */
+  public static void stop(Phase phase, long start, long items) {
+    // A span started while disabled has no start time
+    if (enabled && start != 0L) {
+      SPANS[phase.ordinal()].record(System.nanoTime() - start);
+      ITEMS[phase.ordinal()].add(items);
+    }
+  }
+
+  /**
+   * The current value of a counter.
+   */
+  public static long get(Counter counter) {
+    return COUNTERS[counter.ordinal()].sum();
+  }
+
+  /**
+   * The number of items handled in a phase.
+   */
+  public static long items(Phase phase) {
+    return ITEMS[phase.ordinal()].sum();
+  }
+
+  /**
+   * The spans recorded for a phase.
+   */
+  public static LatencyHistogram histogram(Phase phase) {
+    return SPANS[phase.ordinal()];
+  }
+
+  /**
+   * Takes the current values of every counter and phase.
+   */
+  public static Snapshot snapshot() {
+    return new Snapshot();
+  }
+
+  /**
+   * Hands the current values to a reporter. Failures are reported on {@code System.err}.
+   */
+  public static void report(Reporter reporter) {
+    try {
+      reporter.report(snapshot());
+    } catch (IOException e) {
+      System.err.println("There was a problem reporting metrics: " + e.getMessage());
+    }
+  }
+
+  /**
+   * A reporter printing every value on one line, as {@code metrics: name=value ...}.
+   *
+   * @param out Where to print the line.
+   */
+  public static Reporter logReporter(PrintStream out) {
+    return snapshot -> {
+      StringBuilder line = new StringBuilder("metrics:");
+      for (Map.Entry<String, Long> value : snapshot.values().entrySet()) {
+        line.append(' ').append(value.getKey()).append('=').append(value.getValue());
+      }
+      out.println(line);
+    };
+  }
+
+  /**
+   * A reporter writing every value to a file, one {@code name=value} per line, replacing the file
+   * on each report.
+   *
+   * @param filename Name of the file to write.
+   */
+  public static Reporter fileReporter(String filename) {
+    return snapshot -> {
+      try (BufferedWriter out = Files.newBufferedWriter(Paths.get(filename),
+          StandardCharsets.UTF_8)) {
+        for (Map.Entry<String, Long> value : snapshot.values().entrySet()) {
+          out.write(value.getKey() + "=" + value.getValue() + "\n");
+        }
+      }
+    };
+  }
+
+  /**
+   * A reporter publishing the values as the read-only attributes of an MBean on the platform MBean
+   * server. The MBean is registered on the first report and shows the values of the latest one.
+   *
+   * @param name The object name of the MBean, such as {@code pa3:type=Metrics}.
+   */
+  public static Reporter jmxReporter(String name) {
+    SnapshotMBean bean = new SnapshotMBean();
+    return snapshot -> {
+      bean.snapshot = snapshot;
+      try {
+        ObjectName objectName = new ObjectName(name);
+        if (!ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+          ManagementFactory.getPlatformMBeanServer().registerMBean(bean, objectName);
+        }
+      } catch (JMException e) {
+        throw new IOException("Could not register MBean " + name, e);
+      }
+    };
+  }
+
+  /**
+   * A reporter from a short description: {@code log} for {@link #logReporter(PrintStream)} on
+   * {@code System.out}, {@code file:<filename>} for {@link #fileReporter(String)} or {@code
+   * jmx[:<object name>]} for {@link #jmxReporter(String)}.
+   *
+   * @param spec The description.
+   * @throws IllegalArgumentException If the description is not one of the above.
+   */
+  public static Reporter reporter(String spec) {
+    if (spec.equals("log")) {
+      return logReporter(System.out);
+    }
+    if (spec.startsWith("file:")) {
+      return fileReporter(spec.substring("file:".length()));
+    }
+    if (spec.equals("jmx")) {
+      return jmxReporter("pa3:type=Metrics");
+    }
+    if (spec.startsWith("jmx:")) {
+      return jmxReporter(spec.substring("jmx:".length()));
+    }
+    throw new IllegalArgumentException("Unknown metrics reporter " + spec);
+  }
+
+  /**
+   * Prints how fast each phase went and how the transactions were decided.
+   *
+   * @param out Where to print the summary.
+   * @param elapsedNanos The wall clock time of the whole run.
+   */
+  public static void printSummary(PrintStream out, long elapsedNanos) {
+    out.println("Throughput summary:");
+    for (Phase phase : Phase.values()) {
+      LatencyHistogram spans = histogram(phase);
+      long items = items(phase);
+      out.printf("  %-10s %,12d items in %,10.1f ms %,14.0f items/s  p50 %,d ns  p99 %,d ns"
+              + "  max %,d ns%n", phase.getKey(), items, spans.total() / 1e6,
+          perSecond(items, spans.total()), spans.percentile(50), spans.percentile(99),
+          spans.max());
+    }
+    out.printf("  %-10s %,12d transactions in %,.1f ms %,14.0f transactions/s%n", "total",
+        get(Counter.TRANSACTIONS), elapsedNanos / 1e6,
+        perSecond(get(Counter.TRANSACTIONS), elapsedNanos));
+    out.printf("  approved %,d, unknown account %,d, denied: invalid card number %,d, limit"
+            + " exceeded %,d, velocity exceeded %,d, incorrect account %,d%n",
+        get(Counter.APPROVED), get(Counter.UNKNOWN_ACCOUNT), get(Counter.INVALID_CARD_NUMBER),
+        get(Counter.LIMIT_EXCEEDED), get(Counter.VELOCITY_EXCEEDED),
+        get(Counter.INCORRECT_ACCOUNT));
+  }
+
+  private static double perSecond(long items, long nanos) {
+    return nanos == 0 ? 0 : items * 1e9 / nanos;
+  }
+
+  /**
+   * The values of every counter and phase at one moment, by name.
+   */
+  public static final class Snapshot {
+
+    private final LinkedHashMap<String, Long> values = new LinkedHashMap<>();
+
+    private Snapshot() {
+      for (Counter counter : Counter.values()) {
+        values.put(counter.getKey(), Metrics.get(counter));
+      }
+      for (Phase phase : Phase.values()) {
+        LatencyHistogram spans = histogram(phase);
+        values.put(phase.getKey() + ".items", items(phase));
+        values.put(phase.getKey() + ".spans", spans.count());
+        values.put(phase.getKey() + ".totalNanos", spans.total());
+        values.put(phase.getKey() + ".p50Nanos", spans.percentile(50));
+        values.put(phase.getKey() + ".p99Nanos", spans.percentile(99));
+        values.put(phase.getKey() + ".maxNanos", spans.max());
+      }
+    }
+
+    /**
+     * The values by name, in a fixed order.
+     */
+    public Map<String, Long> values() {
+      return values;
+    }
+
+    /**
+     * The value of one name, or null if there is no such value.
+     */
+    public Long get(String name) {
+      return values.get(name);
+    }
+  }
+
+  /**
+   * Exposes the latest snapshot of a JMX reporter as MBean attributes.
+   */
+  private static class SnapshotMBean implements DynamicMBean {
+
+    private volatile Snapshot snapshot;
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+      Long value = snapshot.get(attribute);
+      if (value == null) {
+        throw new AttributeNotFoundException(attribute);
+      }
+      return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+      throw new AttributeNotFoundException("Metrics are read-only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+      AttributeList list = new AttributeList();
+      for (String attribute : attributes) {
+        Long value = snapshot.get(attribute);
+        if (value != null) {
+          list.add(new Attribute(attribute, value));
+        }
+      }
+      return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+      return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+      throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+      Map<String, Long> values = snapshot.values();
+      MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+      int i = 0;
+      for (String name : values.keySet()) {
+        attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+      }
+      return new MBeanInfo(Metrics.class.getName(), "Metrics of the latest report", attributes,
+          null, null, null);
+    }
+  }
+}
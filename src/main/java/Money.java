@@ -0,0 +1,75 @@
+/**
+ * Helpers for money held as a whole number of cents, and for rates held in basis points. Keeping
+ * amounts in a {@code long} makes sums exact, so a balance never shows up as $107.07540000000002.
+ */
+public final class Money {
+
+  /**
+   * The number of basis points in 100%.
+   */
+  public static final long BASIS_POINTS = 10000L;
+
+  private Money() {
+  }
+
+  /**
+   * Converts a dollar amount to cents, rounding to the nearest cent.
+   *
+   * @param amount An amount in dollars.
+   * @return The amount in cents.
+   */
+  public static long toCents(double amount) {
+    return Math.round(amount * 100d);
+  }
+
+  /**
+   * Converts cents to a dollar amount.
+   *
+   * @param cents An amount in cents.
+   * @return The amount in dollars.
+   */
+  public static double toDollars(long cents) {
+    return cents / 100d;
+  }
+
+  /**
+   * Applies a rate to an amount, rounding half a cent up.
+   *
+   * @param cents An amount in cents.
+   * @param basisPoints The rate in hundredths of a percent.
+   * @return The share of the amount given by the rate, in cents.
+   */
+  public static long applyRate(long cents, long basisPoints) {
+    return Math.floorDiv(cents * basisPoints + BASIS_POINTS / 2, BASIS_POINTS);
+  }
+
+  /**
+   * Appends an amount in dollars with exactly two decimals, such as {@code 1082.01}.
+   *
+   * @param builder Where to append the amount.
+   * @param cents An amount in cents.
+   * @return The builder, for chaining.
+   */
+  public static StringBuilder append(StringBuilder builder, long cents) {
+    if (cents < 0) {
+      builder.append('-');
+      cents = -cents;
+    }
+    long fraction = cents % 100;
+    builder.append(cents / 100).append('.');
+    if (fraction < 10) {
+      builder.append('0');
+    }
+    return builder.append(fraction);
+  }
+
+  /**
+   * Formats an amount in dollars with exactly two decimals, such as {@code 1082.01}.
+   *
+   * @param cents An amount in cents.
+   * @return The formatted amount.
+   */
+  public static String format(long cents) {
+    return append(new StringBuilder(24), cents).toString();
+  }
+}
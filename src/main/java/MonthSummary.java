@@ -0,0 +1,192 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The figures of a card's month so far: how many purchases it made, how much it spent, its largest
+ * purchase, and what it spent per vendor and per day. A card keeps these as running totals that
+ * every approved purchase updates, so a summary never walks the card's transactions; the vendor
+ * and day totals are as long as the number of distinct vendors and days, and the other figures
+ * take constant time.
+ *
+ * <p>A summary is a copy made at one moment and does not change with the card.
+ */
+public class MonthSummary {
+
+  private final int purchases;
+  private final long totalCents;
+  private final long largestCents;
+  private final int firstDay;
+  private final int lastDay;
+  private final long rebateCents;
+  private final long balanceCents;
+  private final IntLongTable vendorCents;
+  private final IntLongTable dayCents;
+
+  private MonthSummary(Running running, long rebateBasisPoints, long balanceCents) {
+    purchases = running.purchases;
+    totalCents = running.totalCents;
+    largestCents = running.largestCents;
+    firstDay = running.firstDay;
+    lastDay = running.lastDay;
+    rebateCents = Money.applyRate(totalCents, rebateBasisPoints);
+    this.balanceCents = balanceCents;
+    vendorCents = running.vendorCents == null ? new IntLongTable() : running.vendorCents.copy();
+    dayCents = running.dayCents == null ? new IntLongTable() : running.dayCents.copy();
+  }
+
+  /**
+   * The number of purchases approved this month.
+   */
+  public int getPurchases() {
+    return purchases;
+  }
+
+  /**
+   * The amount purchased this month, in cents.
+   */
+  public long getTotalCents() {
+    return totalCents;
+  }
+
+  /**
+   * The largest purchase this month in cents, or 0 if there was none.
+   */
+  public long getLargestCents() {
+    return largestCents;
+  }
+
+  /**
+   * The earliest day of a purchase this month as an epoch day, or {@link EpochDay#NONE}.
+   */
+  public int getFirstDay() {
+    return firstDay;
+  }
+
+  /**
+   * The latest day of a purchase this month as an epoch day, or {@link EpochDay#NONE}.
+   */
+  public int getLastDay() {
+    return lastDay;
+  }
+
+  /**
+   * The rebate the month would earn if it were closed now, in cents.
+   */
+  public long getRebateCents() {
+    return rebateCents;
+  }
+
+  /**
+   * The current balance when the summary was made, before the rebate, in cents.
+   */
+  public long getBalanceCents() {
+    return balanceCents;
+  }
+
+  /**
+   * The amount purchased from a vendor this month, in cents.
+   *
+   * @param vendor The vendor name.
+   * @return The amount, or 0 if nothing was purchased from the vendor.
+   */
+  public long getVendorCents(String vendor) {
+    int id = VendorTable.find(vendor);
+    return id == VendorTable.NONE && vendor != null ? 0 : vendorCents.get(id);
+  }
+
+  /**
+   * The amount purchased on a day this month, in cents.
+   *
+   * @param epochDay The day.
+   * @return The amount, or 0 if nothing was purchased on that day.
+   */
+  public long getDayCents(int epochDay) {
+    return dayCents.get(epochDay);
+  }
+
+  /**
+   * The amount purchased from each vendor this month, in cents, by vendor name.
+   */
+  public Map<String, Long> getVendorTotals() {
+    Map<String, Long> totals = new LinkedHashMap<>();
+    for (int k = 0; k < vendorCents.capacity(); k++) {
+      if (vendorCents.isUsed(k)) {
+        totals.put(VendorTable.nameOf(vendorCents.keyAt(k)), vendorCents.valueAt(k));
+      }
+    }
+    return totals;
+  }
+
+  /**
+   * The running totals of a card's month. The card updates them under their own lock, so a
+   * summary and the closing of a month always see whole purchases.
+   */
+  static final class Running {
+    private int purchases;
+    private long totalCents;
+    private long largestCents;
+    private int firstDay = EpochDay.NONE;
+    private int lastDay = EpochDay.NONE;
+    // Only created with the first purchase, as most cards make none in a month
+    private IntLongTable vendorCents;
+    private IntLongTable dayCents;
+
+    /**
+     * Counts an approved purchase.
+     *
+     * @param epochDay The day of the purchase, or {@link EpochDay#NONE}.
+     * @param vendorId The vendor id of the purchase, or {@link VendorTable#NONE}.
+     * @param cents The amount of the purchase in cents.
+     */
+    synchronized void add(int epochDay, int vendorId, long cents) {
+      purchases++;
+      totalCents += cents;
+      largestCents = Math.max(largestCents, cents);
+      if (epochDay != EpochDay.NONE) {
+        firstDay = firstDay == EpochDay.NONE ? epochDay : Math.min(firstDay, epochDay);
+        lastDay = lastDay == EpochDay.NONE ? epochDay : Math.max(lastDay, epochDay);
+        if (dayCents == null) {
+          dayCents = new IntLongTable();
+        }
+        dayCents.add(epochDay, cents);
+      }
+      if (vendorCents == null) {
+        vendorCents = new IntLongTable();
+      }
+      vendorCents.add(vendorId, cents);
+    }
+
+    /**
+     * The amount purchased so far, in cents.
+     */
+    synchronized long totalCents() {
+      return totalCents;
+    }
+
+    /**
+     * A summary of the month so far.
+     */
+    synchronized MonthSummary summarize(long rebateBasisPoints, long balanceCents) {
+      return new MonthSummary(this, rebateBasisPoints, balanceCents);
+    }
+
+    /**
+     * Ends the month: starts the totals over and returns the amount purchased, in cents.
+     */
+    synchronized long close() {
+      long total = totalCents;
+      purchases = 0;
+      totalCents = 0;
+      largestCents = 0;
+      firstDay = EpochDay.NONE;
+      lastDay = EpochDay.NONE;
+      if (vendorCents != null) {
+        vendorCents.clear();
+      }
+      if (dayCents != null) {
+        dayCents.clear();
+      }
+      return total;
+    }
+  }
+}
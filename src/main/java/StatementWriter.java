@@ -0,0 +1,244 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes statement text as UTF-8 into one large buffer that is drained to a channel whenever it
+ * fills up. Numbers and amounts are written digit by digit, so rendering a statement creates no
+ * intermediate {@code String}s and the cost of writing millions of statements is mostly I/O.
+ */
+public class StatementWriter implements Closeable, Flushable {
+
+  private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+  // Room for the longest single write of digits, so that it never has to straddle a flush
+  private static final int MAX_NUMBER_LENGTH = 24;
+
+  private final WritableByteChannel channel;
+  private final ByteBuffer buf;
+
+  /**
+   * Opens a file for writing, replacing its contents.
+   *
+   * @param filename Name of the file to write.
+   * @throws IOException If the file cannot be opened.
+   */
+  public StatementWriter(String filename) throws IOException {
+    this(new FileOutputStream(filename).getChannel(), DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Writes to a channel through a buffer of the given size.
+   *
+   * @param channel Where the text goes.
+   * @param bufferSize The number of bytes held before they are written to the channel.
+   */
+  public StatementWriter(WritableByteChannel channel, int bufferSize) {
+    this(channel, ByteBuffer.allocateDirect(Math.max(bufferSize, MAX_NUMBER_LENGTH * 2)));
+  }
+
+  /**
+   * Writes to a channel through the given buffer. A heap buffer suits text rendered into memory,
+   * which gains nothing from a direct buffer but pays for allocating and freeing one.
+   */
+  StatementWriter(WritableByteChannel channel, ByteBuffer buf) {
+    this.channel = channel;
+    this.buf = buf;
+  }
+
+  /**
+   * Renders text into a string through a writer.
+   *
+   * @param renderer Writes the text.
+   * @return The text written.
+   * @throws IOException If the renderer fails.
+   */
+  public static String render(Renderer renderer) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (StatementWriter out =
+        new StatementWriter(Channels.newChannel(bytes), ByteBuffer.allocate(4096))) {
+      renderer.render(out);
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Something that writes text to a {@link StatementWriter}.
+   */
+  public interface Renderer {
+    void render(StatementWriter out) throws IOException;
+  }
+
+  /**
+   * Writes a string.
+   *
+   * @param s The text to write; null is written as {@code null}.
+   * @return This writer, for chaining.
+   * @throws IOException If the channel cannot be written.
+   */
+  public StatementWriter append(CharSequence s) throws IOException {
+    if (s == null) {
+      return append("null");
+    }
+    return append(s, 0, s.length());
+  }
+
+  /**
+   * Writes part of a string.
+   *
+   * @param s The text to write.
+   * @param start Index of the first char to write.
+   * @param end Index after the last char to write.
+   * @return This writer, for chaining.
+   * @throws IOException If the channel cannot be written.
+   */
+  public StatementWriter append(CharSequence s, int start, int end) throws IOException {
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        if (!buf.hasRemaining()) {
+          drain();
+        }
+        buf.put((byte) c);
+      } else if (Character.isHighSurrogate(c) && i + 1 < end
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        writeCodePoint(Character.toCodePoint(c, s.charAt(++i)));
+      } else {
+        writeCodePoint(Character.isSurrogate(c) ? '?' : c);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Writes a char.
+   *
+   * @param c The char to write.
+   * @return This writer, for chaining.
+   * @throws IOException If the channel cannot be written.
+   */
+  public StatementWriter append(char c) throws IOException {
+    if (c < 0x80) {
+      if (!buf.hasRemaining()) {
+        drain();
+      }
+      buf.put((byte) c);
+      return this;
+    }
+    writeCodePoint(Character.isSurrogate(c) ? '?' : c);
+    return this;
+  }
+
+  private void writeCodePoint(int cp) throws IOException {
+    if (buf.remaining() < 4) {
+      drain();
+    }
+    if (cp < 0x800) {
+      buf.put((byte) (0xc0 | cp >> 6));
+    } else if (cp < 0x10000) {
+      buf.put((byte) (0xe0 | cp >> 12));
+      buf.put((byte) (0x80 | (cp >> 6 & 0x3f)));
+    } else {
+      buf.put((byte) (0xf0 | cp >> 18));
+      buf.put((byte) (0x80 | (cp >> 12 & 0x3f)));
+      buf.put((byte) (0x80 | (cp >> 6 & 0x3f)));
+    }
+    buf.put((byte) (0x80 | (cp & 0x3f)));
+  }
+
+  /**
+   * Writes a whole number in decimal.
+   *
+   * @param value The number to write.
+   * @return This writer, for chaining.
+   * @throws IOException If the channel cannot be written.
+   */
+  public StatementWriter appendLong(long value) throws IOException {
+    if (buf.remaining() < MAX_NUMBER_LENGTH) {
+      drain();
+    }
+    if (value < 0) {
+      buf.put((byte) '-');
+      if (value == Long.MIN_VALUE) {
+        // Its negation does not fit in a long
+        return append("9223372036854775808");
+      }
+      value = -value;
+    }
+    int length = 1;
+    for (long rest = value / 10; rest > 0; rest /= 10) {
+      length++;
+    }
+    return appendDigits(value, length);
+  }
+
+  /**
+   * Writes the last {@code length} decimal digits of a number, padding with leading zeros.
+   *
+   * @param value A non-negative number.
+   * @param length The number of digits to write, at most 19.
+   * @return This writer, for chaining.
+   * @throws IOException If the channel cannot be written.
+   */
+  public StatementWriter appendDigits(long value, int length) throws IOException {
+    if (buf.remaining() < length) {
+      drain();
+    }
+    int at = buf.position() + length;
+    for (int i = at - 1; i >= at - length; i--) {
+      buf.put(i, (byte) ('0' + value % 10));
+      value /= 10;
+    }
+    buf.position(at);
+    return this;
+  }
+
+  /**
+   * Writes an amount in dollars with exactly two decimals, such as {@code 1082.01}, the same way as
+   * {@link Money#append(StringBuilder, long)}.
+   *
+   * @param cents An amount in cents.
+   * @return This writer, for chaining.
+   * @throws IOException If the channel cannot be written.
+   */
+  public StatementWriter appendCents(long cents) throws IOException {
+    if (cents < 0) {
+      append('-');
+      cents = -cents;
+    }
+    appendLong(cents / 100);
+    append('.');
+    return appendDigits(cents % 100, 2);
+  }
+
+  /**
+   * Writes out the buffered bytes so there is room for more.
+   */
+  private void drain() throws IOException {
+    buf.flip();
+    while (buf.hasRemaining()) {
+      channel.write(buf);
+    }
+    buf.clear();
+  }
+
+  @Override
+  public void flush() throws IOException {
+    drain();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      drain();
+    } finally {
+      channel.close();
+    }
+  }
+}
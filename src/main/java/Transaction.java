@@ -3,21 +3,20 @@
  * A file that implements a Transaction class, used in
  * CSE 8B PA3.
  */
+import java.io.IOException;
 import java.util.Date;
 
 /**
  * A class to represent credit card transactions
  * @author Gustavo Umbelino, Heitor Schueroff, Christine Alvarado
- *
- * YOU DO NOT NEED TO MODIFY THIS FILE
  */
 public class Transaction {
 
   private String transactionNumber; // Transaction id
   private String cardNumber;        // Credit card account number
-  private Date date;                // Date of the transaction
+  private int epochDay;             // Date of the transaction, as days since 1970-01-01
   private String vendor;            // The vendor
-  private double purchaseAmount;    // How much was charged
+  private long purchaseCents;       // How much was charged, in cents
   private boolean isValid;          // Was the transaction allowed?
   private String invalidReason;     // If transaction is invalid, the reason why
 
@@ -29,11 +28,37 @@ public class Transaction {
    * @param pamt
    */
   public Transaction(String tn, String cn, Date dt, String vnd, double pamt) {
+    this(tn, cn, EpochDay.fromDate(dt), vnd, Money.toCents(pamt));
+  }
+
+  /**
+   * A transaction whose purchase amount is given in cents. It is a factory rather than a
+   * constructor so that a whole number of dollars, such as {@code 10}, still means $10.00.
+   *
+   * @param tn
+   * @param cn
+   * @param dt
+   * @param vnd
+   * @param pcents Purchase amount in cents
+   * @return The transaction.
+   */
+  public static Transaction ofCents(String tn, String cn, Date dt, String vnd, long pcents) {
+    return new Transaction(tn, cn, EpochDay.fromDate(dt), vnd, pcents);
+  }
+
+  /**
+   * @param tn
+   * @param cn
+   * @param epochDay Date of the transaction as an epoch day, or {@link EpochDay#NONE}
+   * @param vnd
+   * @param pcents Purchase amount in cents
+   */
+  public Transaction(String tn, String cn, int epochDay, String vnd, long pcents) {
     this.transactionNumber = tn;
     this.cardNumber = cn;
-    this.date = dt;
+    this.epochDay = epochDay;
     this.vendor = vnd;
-    this.purchaseAmount = pamt;
+    this.purchaseCents = pcents;
     this.isValid = true;  // Transactions are valid until they are denied
   }
 
@@ -60,8 +85,23 @@ public class Transaction {
 
   @Override
   public String toString() {
-    return "$" + purchaseAmount + " purchase at " +
-        vendor + " with card ending in " + cardNumber.substring(cardNumber.length() - 4);
+    StringBuilder builder = new StringBuilder(64).append('$');
+    return Money.append(builder, purchaseCents).append(" purchase at ")
+        .append(vendor).append(" with card ending in ")
+        .append(cardNumber, cardNumber.length() - 4, cardNumber.length()).toString();
+  }
+
+  /**
+   * Writes the same text as {@link #toString()} without creating it as a String.
+   *
+   * @param out Where to write the description
+   * @return The writer, for chaining
+   * @throws IOException If the writer fails
+   */
+  public StatementWriter writeDescription(StatementWriter out) throws IOException {
+    return out.append('$').appendCents(purchaseCents).append(" purchase at ")
+        .append(vendor).append(" with card ending in ")
+        .append(cardNumber, cardNumber.length() - 4, cardNumber.length());
   }
 
   /**
@@ -72,10 +112,17 @@ public class Transaction {
   }
 
   /**
-   * @return Date of this transaction
+   * @return Date of this transaction, as a new Date on each call, or null if it has none
    */
   public Date getDate() {
-    return date;
+    return EpochDay.toDate(epochDay);
+  }
+
+  /**
+   * @return Date of this transaction as an epoch day, or {@link EpochDay#NONE} if it has none
+   */
+  public int getEpochDay() {
+    return epochDay;
   }
 
   /**
@@ -96,7 +143,14 @@ public class Transaction {
    * @return Purchase amount of this transaction
    */
   public double getPurchaseAmount() {
-    return purchaseAmount;
+    return Money.toDollars(purchaseCents);
+  }
+
+  /**
+   * @return Purchase amount of this transaction, in cents
+   */
+  public long getPurchaseCents() {
+    return purchaseCents;
   }
 
   /**
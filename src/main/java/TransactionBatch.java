@@ -0,0 +1,474 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+/**
+ * A columnar store of transactions. Each field lives in its own primitive array: card numbers and
+ * transaction numbers as longs, dates as epoch days, vendors as {@link VendorTable} ids and
+ * amounts in cents. This takes a fraction of the memory of one {@link Transaction} object per
+ * record, and a {@code Transaction} is only created when {@link #toTransaction(int)} asks for one.
+ *
+ * <p>Numbers are stored with their count of digits so leading zeros survive. The rare card or
+ * transaction number that is not a plain number, such as an invalid card number with a letter in
+ * it, is kept as a string on the side.
+ */
+public class TransactionBatch {
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  // Digit count stored for a number that is kept as a string on the side
+  private static final byte NOT_NUMERIC = 0;
+
+  private static final long[] NO_LONGS = {};
+  private static final byte[] NO_BYTES = {};
+  private static final int[] NO_INTS = {};
+
+  private int size;
+  private long[] transactionNumbers;
+  private byte[] transactionDigits;
+  private long[] cardNumbers;
+  private byte[] cardDigits;
+  private int[] epochDays;
+  private int[] vendorIds;
+  private long[] amounts;
+
+  // Rarely used values, by record index
+  private HashMap<Integer, String> oddTransactionNumbers;
+  private HashMap<Integer, String> oddCardNumbers;
+  private HashMap<Integer, String> denialReasons;
+
+  /**
+   * Creates an empty batch.
+   */
+  public TransactionBatch() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates an empty batch with room for {@code capacity} records before it has to grow. A batch
+   * created with no room allocates nothing until its first record is added, which keeps the many
+   * cards that see no transactions cheap.
+   *
+   * @param capacity The initial number of records.
+   */
+  public TransactionBatch(int capacity) {
+    if (capacity <= 0) {
+      // Empty arrays are never written to, so every empty batch can share them
+      transactionNumbers = cardNumbers = amounts = NO_LONGS;
+      transactionDigits = cardDigits = NO_BYTES;
+      epochDays = vendorIds = NO_INTS;
+      return;
+    }
+    transactionNumbers = new long[capacity];
+    transactionDigits = new byte[capacity];
+    cardNumbers = new long[capacity];
+    cardDigits = new byte[capacity];
+    epochDays = new int[capacity];
+    vendorIds = new int[capacity];
+    amounts = new long[capacity];
+  }
+
+  /**
+   * The number of records in the batch.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Removes all the records, keeping the arrays for reuse.
+   */
+  public void clear() {
+    size = 0;
+    oddTransactionNumbers = null;
+    oddCardNumbers = null;
+    denialReasons = null;
+  }
+
+  /**
+   * Appends a transaction. Its denial, if any, is not copied.
+   *
+   * @param t The transaction to append.
+   */
+  public void add(Transaction t) {
+    int i = append(t.getEpochDay(), VendorTable.idOf(t.getVendor()),
+        t.getPurchaseCents());
+    setTransactionNumber(i, t.getTransactionNumber());
+    setCardNumber(i, t.getCardNumber());
+  }
+
+  /**
+   * Appends a copy of a record of another batch. Its denial, if any, is not copied.
+   *
+   * @param other The batch holding the record.
+   * @param j Index of the record in {@code other}.
+   */
+  public void add(TransactionBatch other, int j) {
+    int i = append(other.epochDays[j], other.vendorIds[j], other.amounts[j]);
+    transactionNumbers[i] = other.transactionNumbers[j];
+    transactionDigits[i] = other.transactionDigits[j];
+    if (transactionDigits[i] == NOT_NUMERIC) {
+      setTransactionNumber(i, other.transactionNumber(j));
+    }
+    cardNumbers[i] = other.cardNumbers[j];
+    cardDigits[i] = other.cardDigits[j];
+    if (cardDigits[i] == NOT_NUMERIC) {
+      setCardNumber(i, other.cardNumber(j));
+    }
+  }
+
+  /**
+   * Appends records read from a transactions file, until {@code max} records have been added or
+   * the input ends. A malformed record is handed to {@code onError} and skipped.
+   *
+   * @param reader The records to read, positioned after the header line.
+   * @param max The largest number of records to add.
+   * @param onError Receives the error of each skipped record.
+   * @return The number of records added, which is 0 only at the end of the input.
+   * @throws IOException If the underlying file cannot be read.
+   */
+  public int readFrom(CsvRecordReader reader, int max, Consumer<CsvFormatException> onError)
+      throws IOException {
+    int added = 0;
+    while (added < max && reader.nextRecord()) {
+      try {
+        reader.requireFields(5);
+        int epochDay = reader.fieldAsEpochDay(2);
+        long cents = reader.fieldAsCents(4);
+        int i = append(epochDay, VendorTable.idOf(reader.fieldAsInternedString(3)), cents);
+        if (reader.fieldIsDigits(0)) {
+          transactionNumbers[i] = reader.fieldAsLong(0);
+          transactionDigits[i] = (byte) reader.fieldLength(0);
+        } else {
+          setTransactionNumber(i, reader.fieldAsString(0));
+        }
+        if (reader.fieldIsDigits(1)) {
+          cardNumbers[i] = reader.fieldAsLong(1);
+          cardDigits[i] = (byte) reader.fieldLength(1);
+        } else {
+          setCardNumber(i, reader.fieldAsString(1));
+        }
+        added++;
+      } catch (CsvFormatException e) {
+        onError.accept(e);
+      }
+    }
+    return added;
+  }
+
+  private int append(int epochDay, int vendorId, long cents) {
+    if (size == amounts.length) {
+      grow();
+    }
+    int i = size++;
+    epochDays[i] = epochDay;
+    vendorIds[i] = vendorId;
+    amounts[i] = cents;
+    return i;
+  }
+
+  private void grow() {
+    int capacity = Math.max(amounts.length * 2, DEFAULT_CAPACITY);
+    transactionNumbers = Arrays.copyOf(transactionNumbers, capacity);
+    transactionDigits = Arrays.copyOf(transactionDigits, capacity);
+    cardNumbers = Arrays.copyOf(cardNumbers, capacity);
+    cardDigits = Arrays.copyOf(cardDigits, capacity);
+    epochDays = Arrays.copyOf(epochDays, capacity);
+    vendorIds = Arrays.copyOf(vendorIds, capacity);
+    amounts = Arrays.copyOf(amounts, capacity);
+  }
+
+  private void setTransactionNumber(int i, String number) {
+    transactionDigits[i] = digitCount(number);
+    if (transactionDigits[i] == NOT_NUMERIC) {
+      if (oddTransactionNumbers == null) {
+        oddTransactionNumbers = new HashMap<>();
+      }
+      oddTransactionNumbers.put(i, number);
+    } else {
+      transactionNumbers[i] = Long.parseLong(number);
+    }
+  }
+
+  private void setCardNumber(int i, String number) {
+    cardDigits[i] = digitCount(number);
+    if (cardDigits[i] == NOT_NUMERIC) {
+      if (oddCardNumbers == null) {
+        oddCardNumbers = new HashMap<>();
+      }
+      oddCardNumbers.put(i, number);
+    } else {
+      cardNumbers[i] = Long.parseLong(number);
+    }
+  }
+
+  /**
+   * The number of digits of a string made of 1 to 18 decimal digits, or {@link #NOT_NUMERIC}.
+   */
+  static byte digitCount(String number) {
+    if (number == null || number.isEmpty() || number.length() > 18) {
+      return NOT_NUMERIC;
+    }
+    for (int j = 0; j < number.length(); j++) {
+      char c = number.charAt(j);
+      if (c < '0' || c > '9') {
+        return NOT_NUMERIC;
+      }
+    }
+    return (byte) number.length();
+  }
+
+  /**
+   * Writes a number out with at least {@code digits} digits, padding with leading zeros.
+   */
+  static String digitsToString(long value, int digits) {
+    char[] chars = new char[digits];
+    for (int j = digits - 1; j >= 0; j--) {
+      chars[j] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Whether the card number of a record is a plain number, available from {@link
+   * #cardNumberValue(int)}.
+   */
+  public boolean isNumericCard(int i) {
+    return cardDigits[i] != NOT_NUMERIC;
+  }
+
+  /**
+   * The card number of a record as a long. Only meaningful when {@link #isNumericCard(int)}.
+   */
+  public long cardNumberValue(int i) {
+    return cardNumbers[i];
+  }
+
+  /**
+   * The number of digits of the card number of a record, leading zeros included. Only meaningful
+   * when {@link #isNumericCard(int)}.
+   */
+  public int cardNumberDigits(int i) {
+    return cardDigits[i];
+  }
+
+  /**
+   * The card number of a record, as it appeared in the file.
+   */
+  public String cardNumber(int i) {
+    if (cardDigits[i] == NOT_NUMERIC) {
+      return oddCardNumbers.get(i);
+    }
+    return digitsToString(cardNumbers[i], cardDigits[i]);
+  }
+
+  /**
+   * The transaction number of a record, as it appeared in the file.
+   */
+  public String transactionNumber(int i) {
+    if (transactionDigits[i] == NOT_NUMERIC) {
+      return oddTransactionNumbers.get(i);
+    }
+    return digitsToString(transactionNumbers[i], transactionDigits[i]);
+  }
+
+  /**
+   * The transaction number of a record as a long. Only meaningful when {@link
+   * #transactionNumberDigits(int)} is not 0.
+   */
+  public long transactionNumberValue(int i) {
+    return transactionNumbers[i];
+  }
+
+  /**
+   * The number of digits of the transaction number of a record, leading zeros included, or 0 if
+   * the transaction number is not a plain number.
+   */
+  public int transactionNumberDigits(int i) {
+    return transactionDigits[i];
+  }
+
+  /**
+   * The date of a record as an epoch day, or {@link EpochDay#NONE}.
+   */
+  public int epochDay(int i) {
+    return epochDays[i];
+  }
+
+  /**
+   * The {@link VendorTable} id of the vendor of a record.
+   */
+  public int vendorId(int i) {
+    return vendorIds[i];
+  }
+
+  /**
+   * The purchase amount of a record, in cents.
+   */
+  public long amountCents(int i) {
+    return amounts[i];
+  }
+
+  /**
+   * Marks a record as denied. Several threads may deny different records of a batch at once.
+   *
+   * @param i Index of the record.
+   * @param reason The reason the transaction was denied.
+   */
+  public synchronized void deny(int i, String reason) {
+    if (denialReasons == null) {
+      denialReasons = new HashMap<>();
+    }
+    denialReasons.put(i, reason);
+  }
+
+  /**
+   * Whether a record was denied.
+   */
+  public boolean isDenied(int i) {
+    return denialReasons != null && denialReasons.containsKey(i);
+  }
+
+  /**
+   * The reason a record was denied, or null if it was not.
+   */
+  public String denialReason(int i) {
+    return denialReasons == null ? null : denialReasons.get(i);
+  }
+
+  /**
+   * Creates a {@link Transaction} for a record, denied with its reason if the record was denied.
+   *
+   * @param i Index of the record.
+   * @return A new Transaction.
+   */
+  public Transaction toTransaction(int i) {
+    Transaction t = new Transaction(transactionNumber(i), cardNumber(i),
+        epochDays[i], VendorTable.nameOf(vendorIds[i]), amounts[i]);
+    if (isDenied(i)) {
+      t.denyTransaction(denialReasons.get(i));
+    }
+    return t;
+  }
+
+  /**
+   * Creates a {@link Transaction} for every record.
+   *
+   * @return A new list of the transactions, in batch order.
+   */
+  public ArrayList<Transaction> toTransactions() {
+    ArrayList<Transaction> transactions = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      transactions.add(toTransaction(i));
+    }
+    return transactions;
+  }
+
+  /**
+   * Writes the same one line description of a record as {@link Transaction#toString()}, without
+   * creating the Transaction.
+   *
+   * @param out Where to write the description.
+   * @param i Index of the record.
+   * @return The writer, for chaining.
+   * @throws IOException If the writer fails.
+   */
+  public StatementWriter writeDescription(StatementWriter out, int i) throws IOException {
+    out.append('$').appendCents(amounts[i]).append(" purchase at ")
+        .append(VendorTable.nameOf(vendorIds[i])).append(" with card ending in ");
+    if (cardDigits[i] >= 4) {
+      return out.appendDigits(cardNumbers[i] % 10000, 4);
+    }
+    String card = cardNumber(i);
+    return out.append(card, card.length() - 4, card.length());
+  }
+
+  /**
+   * Writes the records in a compact binary form that {@link #readBinary(DataInput, int[])} reads
+   * back. Vendors are written as their {@link VendorTable} ids, so whoever reads the records needs
+   * the vendor names as they were when the records were written. Denials are not written.
+   *
+   * @param out Where to write the records.
+   * @throws IOException If the output fails.
+   */
+  void writeBinary(DataOutput out) throws IOException {
+    out.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      writeNumber(out, transactionDigits[i], transactionNumbers[i], transactionNumber(i));
+      writeNumber(out, cardDigits[i], cardNumbers[i], cardNumber(i));
+      out.writeInt(epochDays[i]);
+      out.writeInt(vendorIds[i]);
+      out.writeLong(amounts[i]);
+    }
+  }
+
+  /**
+   * Appends records written by {@link #writeBinary(DataOutput)}.
+   *
+   * @param in Where to read the records.
+   * @param vendorIds The current id of each vendor id written with the records.
+   * @throws IOException If the input fails or ends early.
+   */
+  void readBinary(DataInput in, int[] vendorIds) throws IOException {
+    int count = in.readInt();
+    for (int k = 0; k < count; k++) {
+      byte transactionCount = in.readByte();
+      long transactionValue = 0;
+      String transactionString = null;
+      if (transactionCount == NOT_NUMERIC) {
+        transactionString = readOptionalString(in);
+      } else {
+        transactionValue = in.readLong();
+      }
+      byte cardCount = in.readByte();
+      long cardValue = 0;
+      String cardString = null;
+      if (cardCount == NOT_NUMERIC) {
+        cardString = readOptionalString(in);
+      } else {
+        cardValue = in.readLong();
+      }
+      int epochDay = in.readInt();
+      int vendorId = in.readInt();
+      if (vendorId != VendorTable.NONE) {
+        if (vendorId < 0 || vendorId >= vendorIds.length) {
+          throw new IOException("Unknown vendor id " + vendorId);
+        }
+        vendorId = vendorIds[vendorId];
+      }
+      int i = append(epochDay, vendorId, in.readLong());
+      transactionNumbers[i] = transactionValue;
+      transactionDigits[i] = transactionCount;
+      if (transactionCount == NOT_NUMERIC) {
+        setTransactionNumber(i, transactionString);
+      }
+      cardNumbers[i] = cardValue;
+      cardDigits[i] = cardCount;
+      if (cardCount == NOT_NUMERIC) {
+        setCardNumber(i, cardString);
+      }
+    }
+  }
+
+  private static void writeNumber(DataOutput out, byte digits, long value, String number)
+      throws IOException {
+    out.writeByte(digits);
+    if (digits != NOT_NUMERIC) {
+      out.writeLong(value);
+    } else {
+      out.writeBoolean(number != null);
+      if (number != null) {
+        out.writeUTF(number);
+      }
+    }
+  }
+
+  private static String readOptionalString(DataInput in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+}
@@ -0,0 +1,396 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Answers questions about accepted transactions, such as the spend at a vendor between two dates
+ * or the top vendors by volume, without walking the cards. Transactions are added as they are
+ * accepted: each is appended to a columnar store, its row is posted to the lists of its vendor
+ * and its day, and the totals of its vendor, overall and for its day, are updated.
+ *
+ * <p>Sums and top vendors read the totals, so their cost depends on the number of days and
+ * vendors asked about, not on the number of transactions. Listing transactions walks only the
+ * posting list of the vendor or days asked about. Days are epoch days, and ranges include both
+ * ends; a transaction without a date only shows up in queries that take no dates.
+ *
+ * <p>The index keeps every transaction added to it, across months, until it is cleared. It may be
+ * added to and queried from several threads at once.
+ */
+public class TransactionIndex {
+
+  private static final Postings[] NO_POSTINGS = new Postings[0];
+  private static final IntLongTable[] NO_TABLES = new IntLongTable[0];
+
+  // The accepted transactions; a row number is an index into the store
+  private final TransactionBatch rows = new TransactionBatch();
+
+  // Rows and totals by vendor id plus one, so that a missing vendor gets slot 0
+  private Postings[] byVendor = NO_POSTINGS;
+  private long[] vendorCents = new long[0];
+  private long[] vendorPurchases = new long[0];
+
+  // Rows and per-vendor totals by day, from firstDay on
+  private int firstDay = EpochDay.NONE;
+  private Postings[] byDay = NO_POSTINGS;
+  private IntLongTable[] dayVendorCents = NO_TABLES;
+  private IntLongTable[] dayVendorPurchases = NO_TABLES;
+
+  /**
+   * Adds an accepted transaction.
+   *
+   * @param t The transaction.
+   */
+  public synchronized void add(Transaction t) {
+    int row = rows.size();
+    rows.add(t);
+    post(row);
+  }
+
+  /**
+   * Adds an accepted record of a columnar batch.
+   *
+   * @param batch The batch holding the record.
+   * @param i Index of the record.
+   */
+  public synchronized void add(TransactionBatch batch, int i) {
+    int row = rows.size();
+    rows.add(batch, i);
+    post(row);
+  }
+
+  private void post(int row) {
+    int vendor = rows.vendorId(row);
+    long cents = rows.amountCents(row);
+    int slot = vendor + 1;
+    if (slot >= byVendor.length) {
+      int length = Math.max(slot + 1, byVendor.length * 2);
+      byVendor = Arrays.copyOf(byVendor, length);
+      vendorCents = Arrays.copyOf(vendorCents, length);
+      vendorPurchases = Arrays.copyOf(vendorPurchases, length);
+    }
+    postings(byVendor, slot).add(row);
+    vendorCents[slot] += cents;
+    vendorPurchases[slot]++;
+
+    int day = rows.epochDay(row);
+    if (day == EpochDay.NONE) {
+      return;
+    }
+    int d = daySlot(day);
+    postings(byDay, d).add(row);
+    if (dayVendorCents[d] == null) {
+      dayVendorCents[d] = new IntLongTable();
+      dayVendorPurchases[d] = new IntLongTable();
+    }
+    dayVendorCents[d].add(vendor, cents);
+    dayVendorPurchases[d].add(vendor, 1);
+  }
+
+  private static Postings postings(Postings[] lists, int slot) {
+    if (lists[slot] == null) {
+      lists[slot] = new Postings();
+    }
+    return lists[slot];
+  }
+
+  // The slot of a day in the day arrays, growing them to hold it
+  private int daySlot(int day) {
+    if (firstDay == EpochDay.NONE) {
+      firstDay = day;
+    }
+    if (day < firstDay) {
+      int shift = Math.max(firstDay - day, byDay.length);
+      byDay = prepend(byDay, shift);
+      dayVendorCents = prepend(dayVendorCents, shift);
+      dayVendorPurchases = prepend(dayVendorPurchases, shift);
+      firstDay -= shift;
+    } else if (day - firstDay >= byDay.length) {
+      int length = Math.max(day - firstDay + 1, byDay.length * 2);
+      byDay = Arrays.copyOf(byDay, length);
+      dayVendorCents = Arrays.copyOf(dayVendorCents, length);
+      dayVendorPurchases = Arrays.copyOf(dayVendorPurchases, length);
+    }
+    return day - firstDay;
+  }
+
+  private static <T> T[] prepend(T[] array, int count) {
+    T[] grown = Arrays.copyOf(array, array.length + count);
+    System.arraycopy(array, 0, grown, count, array.length);
+    Arrays.fill(grown, 0, count, null);
+    return grown;
+  }
+
+  /**
+   * The number of transactions in the index.
+   */
+  public synchronized int size() {
+    return rows.size();
+  }
+
+  /**
+   * The accepted spend at a vendor, in cents.
+   *
+   * @param vendor The vendor name.
+   * @return The amount, or 0 if nothing was accepted at the vendor.
+   */
+  public synchronized long vendorCents(String vendor) {
+    int slot = vendorSlot(vendor);
+    return slot < 0 ? 0 : vendorCents[slot];
+  }
+
+  /**
+   * The accepted spend at a vendor between two dates, in cents.
+   *
+   * @param vendor The vendor name.
+   * @param fromDay The first day, as an epoch day.
+   * @param toDay The last day, as an epoch day.
+   * @return The amount, or 0 if nothing was accepted at the vendor on those days.
+   */
+  public synchronized long vendorCents(String vendor, int fromDay, int toDay) {
+    return sumDays(dayVendorCents, vendor, fromDay, toDay);
+  }
+
+  /**
+   * The number of accepted purchases at a vendor between two dates.
+   *
+   * @param vendor The vendor name.
+   * @param fromDay The first day, as an epoch day.
+   * @param toDay The last day, as an epoch day.
+   * @return The number of purchases.
+   */
+  public synchronized long vendorPurchases(String vendor, int fromDay, int toDay) {
+    return sumDays(dayVendorPurchases, vendor, fromDay, toDay);
+  }
+
+  private long sumDays(IntLongTable[] tables, String vendor, int fromDay, int toDay) {
+    if (vendorSlot(vendor) < 0) {
+      return 0;
+    }
+    int vendorId = VendorTable.find(vendor);
+    long sum = 0;
+    for (int d = firstSlot(fromDay), last = lastSlot(toDay); d <= last; d++) {
+      if (tables[d] != null) {
+        sum += tables[d].get(vendorId);
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * The accepted transactions at a vendor between two dates, in the order they were accepted.
+   *
+   * @param vendor The vendor name.
+   * @param fromDay The first day, as an epoch day.
+   * @param toDay The last day, as an epoch day.
+   * @return New Transactions for the matching records.
+   */
+  public synchronized ArrayList<Transaction> vendorTransactions(String vendor, int fromDay,
+      int toDay) {
+    ArrayList<Transaction> found = new ArrayList<>();
+    int slot = vendorSlot(vendor);
+    Postings list = slot < 0 ? null : byVendor[slot];
+    if (list == null) {
+      return found;
+    }
+    for (int k = 0; k < list.size; k++) {
+      int day = rows.epochDay(list.rows[k]);
+      if (day != EpochDay.NONE && day >= fromDay && day <= toDay) {
+        found.add(rows.toTransaction(list.rows[k]));
+      }
+    }
+    return found;
+  }
+
+  /**
+   * The accepted transactions between two dates, day by day, and in the order they were accepted
+   * within a day.
+   *
+   * @param fromDay The first day, as an epoch day.
+   * @param toDay The last day, as an epoch day.
+   * @return New Transactions for the matching records.
+   */
+  public synchronized ArrayList<Transaction> transactionsBetween(int fromDay, int toDay) {
+    ArrayList<Transaction> found = new ArrayList<>();
+    for (int d = firstSlot(fromDay), last = lastSlot(toDay); d <= last; d++) {
+      Postings list = byDay[d];
+      for (int k = 0; list != null && k < list.size; k++) {
+        found.add(rows.toTransaction(list.rows[k]));
+      }
+    }
+    return found;
+  }
+
+  /**
+   * The vendors with the most accepted spend.
+   *
+   * @param k The most vendors to return.
+   * @return Up to {@code k} vendors, the largest spend first.
+   */
+  public synchronized List<VendorTotal> topVendors(int k) {
+    PriorityQueue<VendorTotal> top = new PriorityQueue<>(VOLUME);
+    for (int slot = 1; slot < byVendor.length; slot++) {
+      if (vendorPurchases[slot] > 0) {
+        offer(top, k, new VendorTotal(VendorTable.nameOf(slot - 1), vendorPurchases[slot],
+            vendorCents[slot]));
+      }
+    }
+    return sorted(top);
+  }
+
+  /**
+   * The vendors with the most accepted spend between two dates.
+   *
+   * @param k The most vendors to return.
+   * @param fromDay The first day, as an epoch day.
+   * @param toDay The last day, as an epoch day.
+   * @return Up to {@code k} vendors, the largest spend first.
+   */
+  public synchronized List<VendorTotal> topVendors(int k, int fromDay, int toDay) {
+    long[] cents = new long[byVendor.length];
+    long[] purchases = new long[byVendor.length];
+    for (int d = firstSlot(fromDay), last = lastSlot(toDay); d <= last; d++) {
+      IntLongTable dayCents = dayVendorCents[d];
+      IntLongTable dayPurchases = dayVendorPurchases[d];
+      for (int s = 0; dayCents != null && s < dayCents.capacity(); s++) {
+        if (dayCents.isUsed(s)) {
+          int slot = dayCents.keyAt(s) + 1;
+          cents[slot] += dayCents.valueAt(s);
+          purchases[slot] += dayPurchases.get(dayCents.keyAt(s));
+        }
+      }
+    }
+    PriorityQueue<VendorTotal> top = new PriorityQueue<>(VOLUME);
+    for (int slot = 1; slot < cents.length; slot++) {
+      if (purchases[slot] > 0) {
+        offer(top, k, new VendorTotal(VendorTable.nameOf(slot - 1), purchases[slot],
+            cents[slot]));
+      }
+    }
+    return sorted(top);
+  }
+
+  // Keeps the k largest in a heap whose head is the smallest of them
+  private static void offer(PriorityQueue<VendorTotal> top, int k, VendorTotal total) {
+    if (k <= 0) {
+      return;
+    }
+    if (top.size() < k) {
+      top.add(total);
+    } else if (VOLUME.compare(total, top.peek()) > 0) {
+      top.poll();
+      top.add(total);
+    }
+  }
+
+  private static List<VendorTotal> sorted(PriorityQueue<VendorTotal> top) {
+    List<VendorTotal> list = new ArrayList<>(top);
+    list.sort(Collections.reverseOrder(VOLUME));
+    return list;
+  }
+
+  /**
+   * Removes every transaction from the index.
+   */
+  public synchronized void clear() {
+    rows.clear();
+    byVendor = NO_POSTINGS;
+    vendorCents = new long[0];
+    vendorPurchases = new long[0];
+    firstDay = EpochDay.NONE;
+    byDay = NO_POSTINGS;
+    dayVendorCents = NO_TABLES;
+    dayVendorPurchases = NO_TABLES;
+  }
+
+  // The slot of a vendor in the vendor arrays, or -1 if nothing was accepted there
+  private int vendorSlot(String vendor) {
+    int id = VendorTable.find(vendor);
+    if (id == VendorTable.NONE && vendor != null) {
+      return -1;
+    }
+    return id + 1 < byVendor.length && byVendor[id + 1] != null ? id + 1 : -1;
+  }
+
+  // The first day slot in a range; past the last slot if the range ends before the first day
+  private int firstSlot(int fromDay) {
+    if (firstDay == EpochDay.NONE) {
+      return 0;
+    }
+    return (int) Math.max(0L, (long) fromDay - firstDay);
+  }
+
+  // The last day slot in a range; before slot 0 if the range ends before the first day
+  private int lastSlot(int toDay) {
+    if (firstDay == EpochDay.NONE) {
+      return -1;
+    }
+    return (int) Math.min(byDay.length - 1L, (long) toDay - firstDay);
+  }
+
+  /**
+   * Ranks vendors by spend, then by the number of purchases, then by name.
+   */
+  private static final Comparator<VendorTotal> VOLUME =
+      Comparator.comparingLong(VendorTotal::getCents)
+          .thenComparingLong(VendorTotal::getPurchases)
+          .thenComparing(VendorTotal::getVendor, Comparator.reverseOrder());
+
+  /**
+   * The accepted spend at one vendor.
+   */
+  public static class VendorTotal {
+    private final String vendor;
+    private final long purchases;
+    private final long cents;
+
+    VendorTotal(String vendor, long purchases, long cents) {
+      this.vendor = vendor;
+      this.purchases = purchases;
+      this.cents = cents;
+    }
+
+    /**
+     * The vendor name.
+     */
+    public String getVendor() {
+      return vendor;
+    }
+
+    /**
+     * The number of accepted purchases.
+     */
+    public long getPurchases() {
+      return purchases;
+    }
+
+    /**
+     * The accepted spend, in cents.
+     */
+    public long getCents() {
+      return cents;
+    }
+
+    @Override
+    public String toString() {
+      return vendor + ": " + purchases + " purchases, $" + Money.format(cents);
+    }
+  }
+
+  /**
+   * A growable list of row numbers.
+   */
+  private static final class Postings {
+    int[] rows = new int[4];
+    int size;
+
+    void add(int row) {
+      if (size == rows.length) {
+        rows = Arrays.copyOf(rows, size * 2);
+      }
+      rows[size++] = row;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * Reads transactions from a transactions file one record at a time, so a caller can apply each
+ * {@link Transaction} and drop it before the next one is parsed. Only the record being handed out
+ * is ever held in memory, whatever the size of the file.
+ *
+ * <p>A malformed record is reported with its line number and skipped; the records after it are
+ * still read.
+ */
+public class TransactionReader implements Iterator<Transaction>, Closeable {
+
+  private final CsvRecordReader reader;
+  private final Consumer<CsvFormatException> onError;
+
+  /**
+   * The record parsed ahead by {@link #hasNext()}, or null if it has not been read yet.
+   */
+  private Transaction next;
+  private boolean done;
+
+  /**
+   * Opens the file and skips its header line.
+   *
+   * @param transactionsFilename Name of transactions data file
+   * @throws FileNotFoundException If the file cannot be opened.
+   */
+  public TransactionReader(String transactionsFilename) throws FileNotFoundException {
+    this(new CsvRecordReader(transactionsFilename));
+    try {
+      // Skip header
+      reader.nextRecord();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Reads transactions from records that hold no header line.
+   *
+   * @param reader The records to read.
+   */
+  public TransactionReader(CsvRecordReader reader) {
+    this(reader, e -> {
+      Metrics.count(Metrics.Counter.MALFORMED_RECORDS);
+      System.err.println("Skipping transaction at " + e.getMessage());
+    });
+  }
+
+  /**
+   * Reads transactions from records that hold no header line, handing malformed records to
+   * {@code onError} instead of reporting them.
+   *
+   * @param reader The records to read.
+   * @param onError Receives the error of each skipped record.
+   */
+  public TransactionReader(CsvRecordReader reader, Consumer<CsvFormatException> onError) {
+    this.reader = reader;
+    this.onError = onError;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null && !done) {
+      next = readNext();
+      done = next == null;
+    }
+    return next != null;
+  }
+
+  @Override
+  public Transaction next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Transaction t = next;
+    next = null;
+    return t;
+  }
+
+  /**
+   * Parses the next well-formed record from the file.
+   *
+   * @return The next transaction, or null at the end of the file.
+   */
+  private Transaction readNext() {
+    try {
+      while (reader.nextRecord()) {
+        try {
+          return parse(reader);
+        } catch (CsvFormatException e) {
+          onError.accept(e);
+        }
+      }
+      return null;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Transaction parse(CsvRecordReader record) throws CsvFormatException {
+    record.requireFields(5);
+    String transactionNumber = record.fieldAsString(0);
+    String cardNumber = record.fieldAsString(1);
+    int epochDay = record.fieldAsEpochDay(2);
+    String vendor = record.fieldAsString(3);
+    long purchaseCents = record.fieldAsCents(4);
+    return new Transaction(transactionNumber, cardNumber, epochDay, vendor, purchaseCents);
+  }
+
+  @Override
+  public void close() {
+    done = true;
+    next = null;
+    try {
+      reader.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+import java.util.Arrays;
+
+/**
+ * Velocity rules: how many purchases, and how much in total, a card may make over a rolling
+ * number of days, such as at most 10 purchases a day or $3,000 a week. The clock is the date of
+ * the transactions, so a rolling window of {@code d} days holds the day of the newest transaction
+ * seen and the {@code d - 1} days before it.
+ *
+ * <p>The rules are immutable and may be shared by any number of cards; each card keeps its own
+ * {@link VelocityWindow} of what it spent.
+ */
+public class VelocityLimits {
+
+  // Longest window a rule may have
+  public static final int MAX_DAYS = 366;
+
+  private final int[] days;
+  private final int[] maxPurchases;
+  private final long[] maxCents;
+
+  private VelocityLimits(int[] days, int[] maxPurchases, long[] maxCents) {
+    this.days = days;
+    this.maxPurchases = maxPurchases;
+    this.maxCents = maxCents;
+  }
+
+  /**
+   * A single rule.
+   *
+   * @param days The length of the rolling window in days, from 1 to {@link #MAX_DAYS}.
+   * @param maxPurchases The most purchases allowed within the window, or 0 for no limit.
+   * @param maxCents The most spent within the window in cents, or 0 for no limit.
+   * @throws IllegalArgumentException If the window is out of range or a limit is negative.
+   */
+  public VelocityLimits(int days, int maxPurchases, long maxCents) {
+    checkRule(days, maxPurchases, maxCents);
+    this.days = new int[] {days};
+    this.maxPurchases = new int[] {maxPurchases};
+    this.maxCents = new long[] {maxCents};
+  }
+
+  /**
+   * These rules and one more, all of which a purchase must pass.
+   *
+   * @param days The length of the rolling window in days, from 1 to {@link #MAX_DAYS}.
+   * @param maxPurchases The most purchases allowed within the window, or 0 for no limit.
+   * @param maxCents The most spent within the window in cents, or 0 for no limit.
+   * @return The new rules.
+   * @throws IllegalArgumentException If the window is out of range or a limit is negative.
+   */
+  public VelocityLimits and(int days, int maxPurchases, long maxCents) {
+    checkRule(days, maxPurchases, maxCents);
+    int n = this.days.length;
+    int[] d = Arrays.copyOf(this.days, n + 1);
+    int[] p = Arrays.copyOf(this.maxPurchases, n + 1);
+    long[] c = Arrays.copyOf(this.maxCents, n + 1);
+    d[n] = days;
+    p[n] = maxPurchases;
+    c[n] = maxCents;
+    return new VelocityLimits(d, p, c);
+  }
+
+  private static void checkRule(int days, int maxPurchases, long maxCents) {
+    if (days < 1 || days > MAX_DAYS || maxPurchases < 0 || maxCents < 0) {
+      throw new IllegalArgumentException("Invalid velocity rule " + days + " days, "
+          + maxPurchases + " purchases, " + maxCents + " cents");
+    }
+  }
+
+  /**
+   * Parses rules written as {@code days:purchases:dollars}, separated by commas. For example
+   * {@code 1:10:0,7:0:3000} allows at most 10 purchases a day and $3,000 a week.
+   *
+   * @param spec The rules.
+   * @return The rules.
+   * @throws IllegalArgumentException If the rules cannot be parsed.
+   */
+  public static VelocityLimits parse(String spec) {
+    VelocityLimits limits = null;
+    for (String rule : spec.split(",")) {
+      String[] parts = rule.trim().split(":");
+      if (parts.length != 3) {
+        throw new IllegalArgumentException("Invalid velocity rule " + rule);
+      }
+      try {
+        int days = Integer.parseInt(parts[0].trim());
+        int purchases = Integer.parseInt(parts[1].trim());
+        long cents = Money.toCents(Double.parseDouble(parts[2].trim()));
+        limits = limits == null
+            ? new VelocityLimits(days, purchases, cents)
+            : limits.and(days, purchases, cents);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid velocity rule " + rule, e);
+      }
+    }
+    return limits;
+  }
+
+  /**
+   * The number of rules.
+   */
+  public int size() {
+    return days.length;
+  }
+
+  /**
+   * The length of the window of a rule, in days.
+   */
+  public int days(int rule) {
+    return days[rule];
+  }
+
+  /**
+   * The most purchases a rule allows within its window, or 0 for no limit.
+   */
+  public int maxPurchases(int rule) {
+    return maxPurchases[rule];
+  }
+
+  /**
+   * The most a rule allows to be spent within its window in cents, or 0 for no limit.
+   */
+  public long maxCents(int rule) {
+    return maxCents[rule];
+  }
+
+  /**
+   * The longest window of the rules, in days.
+   */
+  public int maxDays() {
+    int max = 1;
+    for (int d : days) {
+      max = Math.max(max, d);
+    }
+    return max;
+  }
+}
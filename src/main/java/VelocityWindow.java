@@ -0,0 +1,165 @@
+import java.util.Arrays;
+
+/**
+ * What one card spent recently, kept to check its {@link VelocityLimits}. Purchases are counted in
+ * a ring of one bucket per day, long enough for the longest rule, and each rule keeps running
+ * totals over its own window. Checking a purchase compares the totals with the limits; moving to a
+ * later day takes the days that leave each window out of its totals, which is never more work than
+ * one step per bucket. Nothing is allocated after the window is created, however many purchases
+ * the card makes.
+ *
+ * <p>The methods are synchronized, so that a check and the recording of the purchase it allowed
+ * happen as one step on a card shared between threads.
+ */
+public class VelocityWindow {
+
+  private final VelocityLimits limits;
+
+  // One bucket per day; the bucket of a day is its epoch day masked to the ring length
+  private final int mask;
+  private final int[] dayPurchases;
+  private final long[] dayCents;
+
+  // Totals of each rule over the days of its window that end with the newest day
+  private final int[] rulePurchases;
+  private final long[] ruleCents;
+
+  private int newestDay = EpochDay.NONE;
+
+  /**
+   * @param limits The rules to check.
+   */
+  public VelocityWindow(VelocityLimits limits) {
+    this.limits = limits;
+    int length = Integer.highestOneBit(limits.maxDays() * 2 - 1);
+    mask = length - 1;
+    dayPurchases = new int[length];
+    dayCents = new long[length];
+    rulePurchases = new int[limits.size()];
+    ruleCents = new long[limits.size()];
+  }
+
+  /**
+   * The rules this window checks.
+   */
+  public VelocityLimits getLimits() {
+    return limits;
+  }
+
+  /**
+   * Records a purchase if it keeps the card within every rule. A purchase without a date is always
+   * allowed, and so is one older than every window; neither is recorded.
+   *
+   * @param epochDay The day of the purchase, or {@link EpochDay#NONE}.
+   * @param cents The amount of the purchase in cents.
+   * @return False if the purchase would break a rule, true once it is recorded.
+   */
+  public synchronized boolean tryRecord(int epochDay, long cents) {
+    if (epochDay == EpochDay.NONE) {
+      return true;
+    }
+    advanceTo(epochDay);
+    int age = newestDay - epochDay;
+    for (int r = 0; r < rulePurchases.length; r++) {
+      if (age >= limits.days(r)) {
+        continue;
+      }
+      int maxPurchases = limits.maxPurchases(r);
+      long maxCents = limits.maxCents(r);
+      if ((maxPurchases > 0 && rulePurchases[r] + 1 > maxPurchases)
+          || (maxCents > 0 && ruleCents[r] + cents > maxCents)) {
+        return false;
+      }
+    }
+    add(epochDay, 1, cents);
+    return true;
+  }
+
+  /**
+   * Records a purchase without checking the rules, such as one approved before the rules were set
+   * on the card.
+   *
+   * @param epochDay The day of the purchase, or {@link EpochDay#NONE}.
+   * @param cents The amount of the purchase in cents.
+   */
+  public synchronized void record(int epochDay, long cents) {
+    if (epochDay != EpochDay.NONE) {
+      advanceTo(epochDay);
+      add(epochDay, 1, cents);
+    }
+  }
+
+  /**
+   * Takes back a purchase recorded by {@link #tryRecord(int, long)}, for one that was denied
+   * afterwards for another reason.
+   *
+   * @param epochDay The day of the purchase, or {@link EpochDay#NONE}.
+   * @param cents The amount of the purchase in cents.
+   */
+  public synchronized void remove(int epochDay, long cents) {
+    if (epochDay != EpochDay.NONE && newestDay != EpochDay.NONE) {
+      add(epochDay, -1, -cents);
+    }
+  }
+
+  /**
+   * The number of purchases within the window of a rule, up to the newest day seen.
+   */
+  public synchronized int purchases(int rule) {
+    return rulePurchases[rule];
+  }
+
+  /**
+   * The amount spent within the window of a rule in cents, up to the newest day seen.
+   */
+  public synchronized long cents(int rule) {
+    return ruleCents[rule];
+  }
+
+  // Counts a purchase in its day and in the rules whose window holds that day
+  private void add(int epochDay, int purchases, long cents) {
+    int age = newestDay - epochDay;
+    if (age < 0 || age > mask) {
+      return;
+    }
+    dayPurchases[epochDay & mask] += purchases;
+    dayCents[epochDay & mask] += cents;
+    for (int r = 0; r < rulePurchases.length; r++) {
+      if (age < limits.days(r)) {
+        rulePurchases[r] += purchases;
+        ruleCents[r] += cents;
+      }
+    }
+  }
+
+  private void advanceTo(int epochDay) {
+    if (newestDay == EpochDay.NONE) {
+      newestDay = epochDay;
+      return;
+    }
+    if (epochDay <= newestDay) {
+      return;
+    }
+    if (epochDay - newestDay > mask) {
+      // Every recorded day has left every window
+      Arrays.fill(dayPurchases, 0);
+      Arrays.fill(dayCents, 0L);
+      Arrays.fill(rulePurchases, 0);
+      Arrays.fill(ruleCents, 0L);
+      newestDay = epochDay;
+      return;
+    }
+    while (newestDay < epochDay) {
+      newestDay++;
+      for (int r = 0; r < rulePurchases.length; r++) {
+        // The day that leaves the window of this rule as the newest day moves on
+        int leaving = (newestDay - limits.days(r)) & mask;
+        rulePurchases[r] -= dayPurchases[leaving];
+        ruleCents[r] -= dayCents[leaving];
+      }
+      // The bucket of the new day last held the day a whole ring ago
+      dayPurchases[newestDay & mask] = 0;
+      dayCents[newestDay & mask] = 0L;
+    }
+  }
+}
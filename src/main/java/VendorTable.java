@@ -0,0 +1,80 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives each vendor name a small integer id, so that columnar transaction stores can keep an
+ * {@code int} per record instead of a reference to a name. Ids are shared by the whole program and
+ * never reused.
+ */
+public final class VendorTable {
+
+  /**
+   * The id of a missing vendor.
+   */
+  public static final int NONE = -1;
+
+  private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+  private static volatile String[] names = new String[64];
+  private static int count;
+
+  private VendorTable() {
+  }
+
+  /**
+   * The id of a vendor, assigning a new one the first time the name is seen.
+   *
+   * @param vendor A vendor name, or null.
+   * @return The id of the vendor, or {@link #NONE} for null.
+   */
+  public static int idOf(String vendor) {
+    if (vendor == null) {
+      return NONE;
+    }
+    Integer id = ids.get(vendor);
+    return id != null ? id : register(vendor);
+  }
+
+  /**
+   * The id of a vendor already seen, without assigning one.
+   *
+   * @param vendor A vendor name, or null.
+   * @return The id of the vendor, or {@link #NONE} for null or a name never seen.
+   */
+  public static int find(String vendor) {
+    Integer id = vendor == null ? null : ids.get(vendor);
+    return id != null ? id : NONE;
+  }
+
+  private static synchronized int register(String vendor) {
+    Integer id = ids.get(vendor);
+    if (id != null) {
+      return id;
+    }
+    String[] current = names;
+    if (count == current.length) {
+      current = Arrays.copyOf(current, count * 2);
+    }
+    current[count] = vendor;
+    // Publish the name before the id can be seen by other threads
+    names = current;
+    ids.put(vendor, count);
+    return count++;
+  }
+
+  /**
+   * The name of a vendor.
+   *
+   * @param id An id returned by {@link #idOf(String)}, or {@link #NONE}.
+   * @return The vendor name, or null for {@link #NONE}.
+   */
+  public static String nameOf(int id) {
+    return id == NONE ? null : names[id];
+  }
+
+  /**
+   * The number of vendors seen so far. Ids run from 0 to this count minus one.
+   */
+  public static int size() {
+    return ids.size();
+  }
+}